@@ -0,0 +1,66 @@
+package com.virginholidays.aws.loadtest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import com.virginholidays.aws.dw.sqs.MessageCodec;
+import com.virginholidays.aws.dw.sqs.MessageCodecs;
+
+/**
+ * Reports the size and CPU tradeoffs of a message codec: compression ratio,
+ * encode and decode time per message and the resulting throughput, for a
+ * range of JSON-like body sizes.
+ * <p>
+ * Settings are read from {@code codecBenchmark.*} system properties:
+ * {@code codec} (default gzip) and {@code seconds} per measurement (default 2).
+ */
+public class CodecBenchmark {
+
+    private static final int[] BODY_SIZES = {1024, 16 * 1024, 64 * 1024, 200 * 1024};
+
+    public static void main(String[] args) {
+        MessageCodec codec = MessageCodecs.forName(System.getProperty("codecBenchmark.codec", "gzip"));
+        long measureNanos = TimeUnit.SECONDS.toNanos(Long.getLong("codecBenchmark.seconds", 2));
+
+        System.out.printf("Codec: %s%n", codec.getName());
+        System.out.printf("%10s %10s %7s %12s %12s %12s %12s%n",
+                "plain B", "encoded B", "ratio", "encode us", "decode us", "encode MB/s", "decode MB/s");
+
+        for (int size : BODY_SIZES) {
+            String body = LoadTest.payload(size);
+            String encoded = codec.encode(body);
+            int plainBytes = body.getBytes(StandardCharsets.UTF_8).length;
+            int encodedBytes = encoded.getBytes(StandardCharsets.UTF_8).length;
+
+            // The first round warms up the JIT and the pooled buffers
+            measure(() -> codec.encode(body), measureNanos);
+            measure(() -> codec.decode(encoded), measureNanos);
+            double encodeNanos = measure(() -> codec.encode(body), measureNanos);
+            double decodeNanos = measure(() -> codec.decode(encoded), measureNanos);
+
+            System.out.printf("%10d %10d %7.2f %12.1f %12.1f %12.1f %12.1f%n",
+                    plainBytes, encodedBytes, (double) plainBytes / encodedBytes,
+                    encodeNanos / 1000, decodeNanos / 1000,
+                    megabytesPerSecond(plainBytes, encodeNanos), megabytesPerSecond(plainBytes, decodeNanos));
+        }
+    }
+
+    /**
+     * @return The mean time per operation, in nanoseconds.
+     */
+    private static double measure(Runnable operation, long measureNanos) {
+        long operations = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            operation.run();
+            operations++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < measureNanos);
+        return (double) elapsed / operations;
+    }
+
+    private static double megabytesPerSecond(int bytes, double nanosPerOperation) {
+        return bytes / nanosPerOperation * TimeUnit.SECONDS.toNanos(1) / (1024 * 1024);
+    }
+}
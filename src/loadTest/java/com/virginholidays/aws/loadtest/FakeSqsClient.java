@@ -0,0 +1,239 @@
+package com.virginholidays.aws.loadtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityRequest;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityResponse;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageRequest;
+import software.amazon.awssdk.services.sqs.model.DeleteMessageResponse;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.MessageSystemAttributeName;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
+import software.amazon.awssdk.services.sqs.model.ReceiveMessageResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageResponse;
+import software.amazon.awssdk.services.sqs.model.SqsException;
+
+/**
+ * In-memory stand-in for a single SQS queue, with visibility timeouts and
+ * injectable faults. Only the operations used by this library are supported.
+ */
+public class FakeSqsClient implements SqsClient {
+
+    /**
+     * Time an empty receive waits before returning, like a short long-poll.
+     */
+    private static final long EMPTY_RECEIVE_WAIT_MILLIS = 20;
+
+    private final LoadTestConfig config;
+
+    private final BlockingQueue<StoredMessage> visible = new LinkedBlockingQueue<>();
+    private final Map<String, Receipt> inFlight = new ConcurrentHashMap<>();
+    private final DelayQueue<Receipt> expirations = new DelayQueue<>();
+    private final AtomicLong receiptSequence = new AtomicLong();
+
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong receiveErrors = new AtomicLong();
+
+    public FakeSqsClient(LoadTestConfig config) {
+        this.config = config;
+    }
+
+    @Override
+    public SendMessageResponse sendMessage(SendMessageRequest request) {
+        maybeThrottle();
+
+        StoredMessage message = new StoredMessage(UUID.randomUUID().toString(), request.messageBody(),
+                request.messageAttributes(), System.currentTimeMillis());
+        visible.add(message);
+        return SendMessageResponse.builder().messageId(message.id).build();
+    }
+
+    @Override
+    public ReceiveMessageResponse receiveMessage(ReceiveMessageRequest request) {
+        maybeThrottle();
+        if (random() < config.getReceiveErrorRate()) {
+            receiveErrors.incrementAndGet();
+            throw SdkClientException.create("Injected receive error");
+        }
+
+        releaseExpired();
+
+        int max = request.maxNumberOfMessages() != null ? request.maxNumberOfMessages() : 1;
+        int visibilitySeconds = request.visibilityTimeout() != null
+                ? request.visibilityTimeout() : config.getVisibilityTimeoutSeconds();
+
+        List<Message> messages = new ArrayList<>(max);
+        try {
+            StoredMessage first = visible.poll(EMPTY_RECEIVE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            if (first != null) {
+                messages.add(receive(first, visibilitySeconds));
+                StoredMessage next;
+                while (messages.size() < max && (next = visible.poll()) != null) {
+                    messages.add(receive(next, visibilitySeconds));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return ReceiveMessageResponse.builder().messages(messages).build();
+    }
+
+    private Message receive(StoredMessage message, int visibilitySeconds) {
+        String receiptHandle = message.id + "#" + receiptSequence.incrementAndGet();
+        hide(new Receipt(receiptHandle, message, visibilitySeconds));
+
+        return Message.builder()
+                .messageId(message.id)
+                .receiptHandle(receiptHandle)
+                .body(message.body)
+                .messageAttributes(message.attributes)
+                .attributes(Map.of(MessageSystemAttributeName.SENT_TIMESTAMP, Long.toString(message.sentAt)))
+                .build();
+    }
+
+    @Override
+    public DeleteMessageResponse deleteMessage(DeleteMessageRequest request) {
+        maybeThrottle();
+        sleep(config.getDeleteDelayMillis());
+
+        // Deleting with a stale receipt handle is silently ignored, as SQS does
+        inFlight.remove(request.receiptHandle());
+        return DeleteMessageResponse.builder().build();
+    }
+
+    @Override
+    public ChangeMessageVisibilityResponse changeMessageVisibility(ChangeMessageVisibilityRequest request) {
+        maybeThrottle();
+
+        Receipt current = inFlight.get(request.receiptHandle());
+        if (current != null) {
+            hide(new Receipt(current.handle, current.message, request.visibilityTimeout()));
+        }
+        return ChangeMessageVisibilityResponse.builder().build();
+    }
+
+    private void hide(Receipt receipt) {
+        inFlight.put(receipt.handle, receipt);
+        expirations.add(receipt);
+    }
+
+    private void releaseExpired() {
+        Receipt expired;
+        while ((expired = expirations.poll()) != null) {
+            // Only the latest receipt of a message that was not deleted makes it visible again
+            if (inFlight.remove(expired.handle, expired)) {
+                visible.add(expired.message);
+            }
+        }
+    }
+
+    private void maybeThrottle() {
+        if (random() < config.getThrottleRate()) {
+            throttled.incrementAndGet();
+            throw SqsException.builder()
+                    .statusCode(400)
+                    .message("Rate exceeded")
+                    .awsErrorDetails(AwsErrorDetails.builder()
+                            .errorCode("ThrottlingException")
+                            .errorMessage("Rate exceeded")
+                            .build())
+                    .build();
+        }
+    }
+
+    private static double random() {
+        return ThreadLocalRandom.current().nextDouble();
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return The number of messages that are waiting or in flight.
+     */
+    public int getBacklog() {
+        return visible.size() + inFlight.size();
+    }
+
+    public long getThrottledCount() {
+        return throttled.get();
+    }
+
+    public long getReceiveErrorCount() {
+        return receiveErrors.get();
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+        visible.clear();
+        inFlight.clear();
+        expirations.clear();
+    }
+
+    private static final class StoredMessage {
+
+        private final String id;
+        private final String body;
+        private final Map<String, MessageAttributeValue> attributes;
+        private final long sentAt;
+
+        private StoredMessage(String id, String body, Map<String, MessageAttributeValue> attributes, long sentAt) {
+            this.id = id;
+            this.body = body;
+            this.attributes = attributes;
+            this.sentAt = sentAt;
+        }
+    }
+
+    private static final class Receipt implements Delayed {
+
+        private final String handle;
+        private final StoredMessage message;
+        private final long visibleAtNanos;
+
+        private Receipt(String handle, StoredMessage message, int visibilitySeconds) {
+            this.handle = handle;
+            this.message = message;
+            this.visibleAtNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(visibilitySeconds);
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(visibleAtNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
+    }
+}
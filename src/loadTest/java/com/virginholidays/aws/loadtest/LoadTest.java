@@ -0,0 +1,230 @@
+package com.virginholidays.aws.loadtest;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.UniformReservoir;
+import com.virginholidays.aws.dw.sqs.MessageCodec;
+import com.virginholidays.aws.dw.sqs.MessageCodecs;
+import com.virginholidays.aws.dw.sqs.MessageDispatcher;
+import com.virginholidays.aws.dw.sqs.SqsListenerImpl;
+import software.amazon.awssdk.core.exception.SdkException;
+
+/**
+ * End-to-end load and soak test: dispatches messages at a fixed rate through
+ * {@link MessageDispatcher} to a {@link FakeSqsClient}, consumes them with
+ * several {@link SqsListenerImpl}s and reports throughput, latency, duplicate
+ * deliveries and heap/GC behaviour. Exits with status 1 when a configured
+ * threshold is violated.
+ *
+ * @see LoadTestConfig
+ */
+public class LoadTest {
+
+    private static final String QUEUE_URL = "http://localhost/000000000000/load-test";
+
+    private static final int RESERVOIR_SIZE = 100_000;
+
+    private static final long POLL_MILLIS = 100;
+
+    private final LoadTestConfig config;
+    private final FakeSqsClient sqs;
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final SyntheticHandler handler;
+
+    private long sent;
+    private long sendErrors;
+
+    public LoadTest(LoadTestConfig config) {
+        this.config = config;
+        this.sqs = new FakeSqsClient(config);
+        this.handler = new SyntheticHandler(config);
+
+        // Uniform sampling keeps the tail percentiles of the whole run, unlike the default decaying reservoir
+        for (String name : List.of("queue-dwell", "handler", "end-to-end")) {
+            metrics.register(MetricRegistry.name(SqsListenerImpl.class, SyntheticHandler.MESSAGE_TYPE, name),
+                    new Timer(new UniformReservoir(RESERVOIR_SIZE)));
+        }
+    }
+
+    public static void main(String[] args) {
+        LoadTestConfig config = new LoadTestConfig();
+        System.out.println("Load test: " + config);
+        if ((config.getThrottleRate() > 0 || config.getReceiveErrorRate() > 0)
+                && config.getDrainSeconds() <= config.getVisibilityTimeoutSeconds()) {
+            System.out.println("WARNING: drainSeconds does not exceed visibilityTimeoutSeconds,"
+                    + " redeliveries of throttled deletes will not be counted");
+        }
+
+        boolean passed = new LoadTest(config).run();
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * @return True when all configured thresholds were met.
+     */
+    public boolean run() {
+        List<SqsListenerImpl> listeners = new ArrayList<>();
+        for (int i = 0; i < config.getConsumers(); i++) {
+            SqsListenerImpl listener = new SqsListenerImpl(sqs, QUEUE_URL, Set.of(handler), metrics);
+            listener.start();
+            listeners.add(listener);
+        }
+
+        List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .toList();
+        heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+        long gcCountBefore = gcCount();
+        long gcTimeBefore = gcTimeMillis();
+
+        long start = System.nanoTime();
+        produce(start);
+        long produced = System.nanoTime();
+        long caughtUp = drain();
+        long elapsed = caughtUp - start;
+
+        listeners.forEach(SqsListenerImpl::stop);
+
+        double seconds = elapsed / (double) TimeUnit.SECONDS.toNanos(1);
+        double throughput = handler.getHandled() / seconds;
+        double produceRate = sent / ((produced - start) / (double) TimeUnit.SECONDS.toNanos(1));
+        long delivered = handler.getHandled() + handler.getDuplicates();
+        Snapshot endToEnd = timer("end-to-end").getSnapshot();
+
+        System.out.println("--- Results ---");
+        System.out.printf("Sent:            %d (%.1f msgs/s), send errors: %d%n", sent, produceRate, sendErrors);
+        System.out.printf("Handled:         %d in %.1f s, sustained %.1f msgs/s%n",
+                handler.getHandled(), seconds, throughput);
+        System.out.printf("Not drained:     %d%n", sqs.getBacklog());
+        System.out.printf("Duplicates:      %d (%.3f%% of deliveries)%n", handler.getDuplicates(),
+                delivered > 0 ? 100.0 * handler.getDuplicates() / delivered : 0);
+        System.out.printf("Faults injected: %d throttled, %d receive errors%n",
+                sqs.getThrottledCount(), sqs.getReceiveErrorCount());
+        printLatency("End-to-end", endToEnd);
+        printLatency("Queue dwell", timer("queue-dwell").getSnapshot());
+        printLatency("Handler", timer("handler").getSnapshot());
+        System.out.printf("Heap:            %d MB used, %d MB peak%n",
+                toMegabytes(ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed()),
+                toMegabytes(heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum()));
+        System.out.printf("GC:              %d collections, %d ms%n",
+                gcCount() - gcCountBefore, gcTimeMillis() - gcTimeBefore);
+
+        boolean passed = true;
+        if (config.getMinThroughput() > 0 && throughput < config.getMinThroughput()) {
+            System.out.printf("FAILED: throughput %.1f msgs/s is below %.1f msgs/s%n",
+                    throughput, config.getMinThroughput());
+            passed = false;
+        }
+        double p99 = toMillis(endToEnd.get99thPercentile());
+        if (config.getMaxP99Millis() > 0 && p99 > config.getMaxP99Millis()) {
+            System.out.printf("FAILED: p99 end-to-end latency %.1f ms exceeds %.1f ms%n",
+                    p99, config.getMaxP99Millis());
+            passed = false;
+        }
+        sqs.close();
+        return passed;
+    }
+
+    private void produce(long start) {
+        MessageCodec codec = "none".equalsIgnoreCase(config.getCodec()) ? null : MessageCodecs.forName(config.getCodec());
+        String payload = payload(config.getBodySize());
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / config.getRate());
+        long end = start + TimeUnit.SECONDS.toNanos(config.getDurationSeconds());
+
+        long next = start;
+        while (next < end) {
+            // Falling behind schedule sends immediately, so the offered rate is kept where possible
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            String body = "{\"seq\":" + sent + ",\"payload\":\"" + payload + "\"}";
+            try {
+                if (codec == null) {
+                    MessageDispatcher.dispatch(body, QUEUE_URL, SyntheticHandler.MESSAGE_TYPE, sqs);
+                } else {
+                    MessageDispatcher.dispatch(body, QUEUE_URL, SyntheticHandler.MESSAGE_TYPE, sqs, codec, 0);
+                }
+                sent++;
+            } catch (SdkException e) {
+                sendErrors++;
+            }
+            next += intervalNanos;
+        }
+    }
+
+    /**
+     * Waits until every sent message was handled once, then keeps waiting
+     * until the queue is empty, so messages that are redelivered after their
+     * visibility timeout are counted as duplicates. Both phases share the
+     * drain deadline.
+     *
+     * @return The time at which the consumers caught up with the producer, or
+     *         the deadline when they never did.
+     */
+    private long drain() {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(config.getDrainSeconds());
+        while (handler.getHandled() < sent && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(POLL_MILLIS));
+        }
+        long caughtUp = Math.min(System.nanoTime(), deadline);
+
+        while (sqs.getBacklog() > 0 && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(POLL_MILLIS));
+        }
+        return caughtUp;
+    }
+
+    static String payload(int size) {
+        StringBuilder builder = new StringBuilder(size);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (builder.length() < size) {
+            // Words from a small vocabulary compress roughly like real JSON payloads
+            builder.append("field").append(random.nextInt(100)).append(' ');
+        }
+        return builder.substring(0, size);
+    }
+
+    private Timer timer(String name) {
+        return metrics.timer(MetricRegistry.name(SqsListenerImpl.class, SyntheticHandler.MESSAGE_TYPE, name));
+    }
+
+    private static void printLatency(String label, Snapshot snapshot) {
+        System.out.printf("%-16s p50 %.1f ms, p99 %.1f ms, p999 %.1f ms, max %.1f ms%n", label + ":",
+                toMillis(snapshot.getMedian()), toMillis(snapshot.get99thPercentile()),
+                toMillis(snapshot.get999thPercentile()), toMillis(snapshot.getMax()));
+    }
+
+    private static double toMillis(double nanos) {
+        return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private static long toMegabytes(long bytes) {
+        return bytes / (1024 * 1024);
+    }
+
+    private static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionCount)
+                .sum();
+    }
+
+    private static long gcTimeMillis() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionTime)
+                .sum();
+    }
+}
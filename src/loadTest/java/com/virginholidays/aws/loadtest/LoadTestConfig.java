@@ -0,0 +1,143 @@
+package com.virginholidays.aws.loadtest;
+
+/**
+ * Load test settings, read from {@code loadTest.*} system properties. The
+ * Gradle {@code loadTest} task forwards {@code -PloadTest.*} project properties.
+ */
+public class LoadTestConfig {
+
+    private static final String PREFIX = "loadTest.";
+
+    /**
+     * Messages dispatched per second.
+     */
+    private final double rate = doubleProperty("rate", 200);
+
+    private final int durationSeconds = intProperty("durationSeconds", 60);
+
+    /**
+     * Maximum time to wait for the backlog to drain after the producer stops.
+     * Should exceed the visibility timeout, so redeliveries of messages whose
+     * delete failed are counted.
+     */
+    private final int drainSeconds = intProperty("drainSeconds", 60);
+
+    private final int consumers = intProperty("consumers", 4);
+
+    private final int bodySize = intProperty("bodySize", 1024);
+
+    /**
+     * Body codec, "none" or the name of a registered message codec.
+     */
+    private final String codec = stringProperty("codec", "none");
+
+    /**
+     * Handler latency distribution: "constant", "uniform" (0 to twice the mean)
+     * or "exponential".
+     */
+    private final String latencyDistribution = stringProperty("latencyDistribution", "exponential");
+
+    private final double latencyMeanMillis = doubleProperty("latencyMeanMillis", 5);
+
+    /**
+     * Fraction of send, receive, delete and visibility calls that are throttled.
+     */
+    private final double throttleRate = doubleProperty("throttleRate", 0);
+
+    /**
+     * Fraction of receive calls that fail with a client error.
+     */
+    private final double receiveErrorRate = doubleProperty("receiveErrorRate", 0);
+
+    private final long deleteDelayMillis = intProperty("deleteDelayMillis", 0);
+
+    private final int visibilityTimeoutSeconds = intProperty("visibilityTimeoutSeconds", 30);
+
+    /**
+     * The run fails when the sustained throughput is below this value, zero
+     * disables the check.
+     */
+    private final double minThroughput = doubleProperty("minThroughput", 0);
+
+    /**
+     * The run fails when the p99 end-to-end latency exceeds this value, zero
+     * disables the check.
+     */
+    private final double maxP99Millis = doubleProperty("maxP99Millis", 0);
+
+    public double getRate() {
+        return rate;
+    }
+
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public int getDrainSeconds() {
+        return drainSeconds;
+    }
+
+    public int getConsumers() {
+        return consumers;
+    }
+
+    public int getBodySize() {
+        return bodySize;
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    public String getLatencyDistribution() {
+        return latencyDistribution;
+    }
+
+    public double getLatencyMeanMillis() {
+        return latencyMeanMillis;
+    }
+
+    public double getThrottleRate() {
+        return throttleRate;
+    }
+
+    public double getReceiveErrorRate() {
+        return receiveErrorRate;
+    }
+
+    public long getDeleteDelayMillis() {
+        return deleteDelayMillis;
+    }
+
+    public int getVisibilityTimeoutSeconds() {
+        return visibilityTimeoutSeconds;
+    }
+
+    public double getMinThroughput() {
+        return minThroughput;
+    }
+
+    public double getMaxP99Millis() {
+        return maxP99Millis;
+    }
+
+    private static String stringProperty(String name, String defaultValue) {
+        return System.getProperty(PREFIX + name, defaultValue);
+    }
+
+    private static int intProperty(String name, int defaultValue) {
+        return Integer.parseInt(stringProperty(name, Integer.toString(defaultValue)));
+    }
+
+    private static double doubleProperty(String name, double defaultValue) {
+        return Double.parseDouble(stringProperty(name, Double.toString(defaultValue)));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("rate=%.0f/s duration=%ds consumers=%d bodySize=%d codec=%s latency=%s(%.1fms) "
+                        + "throttleRate=%.3f receiveErrorRate=%.3f deleteDelay=%dms visibilityTimeout=%ds",
+                rate, durationSeconds, consumers, bodySize, codec, latencyDistribution, latencyMeanMillis,
+                throttleRate, receiveErrorRate, deleteDelayMillis, visibilityTimeoutSeconds);
+    }
+}
@@ -0,0 +1,75 @@
+package com.virginholidays.aws.loadtest;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.virginholidays.aws.dw.sqs.MessageHandler;
+import software.amazon.awssdk.services.sqs.model.Message;
+
+/**
+ * Simulates downstream work with a configurable latency distribution and
+ * detects duplicate deliveries.
+ */
+public class SyntheticHandler extends MessageHandler {
+
+    public static final String MESSAGE_TYPE = "LoadTest";
+
+    private final String distribution;
+    private final double meanNanos;
+
+    private final Set<String> handledIds = ConcurrentHashMap.newKeySet();
+    private final LongAdder handled = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+
+    public SyntheticHandler(LoadTestConfig config) {
+        super(MESSAGE_TYPE);
+
+        this.distribution = config.getLatencyDistribution();
+        this.meanNanos = config.getLatencyMeanMillis() * TimeUnit.MILLISECONDS.toNanos(1);
+
+        // Fail fast on a typo rather than after the first message
+        sampleLatencyNanos();
+    }
+
+    @Override
+    public void handle(Message message) {
+        long latency = sampleLatencyNanos();
+        if (latency > 0) {
+            LockSupport.parkNanos(latency);
+        }
+
+        if (handledIds.add(message.messageId())) {
+            handled.increment();
+        } else {
+            duplicates.increment();
+        }
+    }
+
+    private long sampleLatencyNanos() {
+        double u = ThreadLocalRandom.current().nextDouble();
+        return switch (distribution) {
+            case "constant" -> (long) meanNanos;
+            case "uniform" -> (long) (u * 2 * meanNanos);
+            case "exponential" -> (long) (-meanNanos * Math.log(1 - u));
+            default -> throw new IllegalArgumentException("Unknown latency distribution: " + distribution);
+        };
+    }
+
+    /**
+     * @return The number of distinct messages handled.
+     */
+    public long getHandled() {
+        return handled.sum();
+    }
+
+    /**
+     * @return The number of deliveries of messages that were handled before.
+     */
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+}
@@ -1,15 +1,21 @@
 package com.virginholidays.aws;
 
+import java.net.URI;
+
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.virginholidays.aws.dw.core.AwsClientRegistry;
 import com.virginholidays.aws.dw.core.ManagedAwsClient;
 import io.dropwizard.core.setup.Environment;
+import lombok.AccessLevel;
 import lombok.Getter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.awscore.client.builder.AwsClientBuilder;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.sns.SnsClient;
 import software.amazon.awssdk.services.sqs.SqsClient;
@@ -18,7 +24,10 @@ import static org.apache.commons.lang3.StringUtils.isEmpty;
 import static org.apache.commons.lang3.StringUtils.isNotEmpty;
 
 /**
- * Builds a managed {@link SqsClient} instance.
+ * Builds managed {@link SqsClient} and {@link SnsClient} instances. Clients are
+ * created lazily and shared per factory: every build call for the same client
+ * type and environment returns the same instance, backed by one HTTP connection
+ * pool and one credentials provider. Separate factories never share clients.
  * 
  * @author Veysel Tosun
  */
@@ -36,6 +45,23 @@ public class AwsFactory {
     @JsonProperty
     private String awsRegion;
 
+    /**
+     * Optional endpoint override, e.g. for a VPC endpoint or a local SQS stand-in.
+     */
+    @JsonProperty
+    private String awsEndpoint;
+
+    /**
+     * When true, clients send a lightweight request on startup to set up their
+     * connections before the first real request.
+     */
+    @JsonProperty
+    private boolean prewarmConnections;
+
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    private final AwsClientRegistry clientRegistry = new AwsClientRegistry();
+
     private static final Region DEFAULT_REGION = Region.EU_WEST_1;
 
     /**
@@ -45,30 +71,18 @@ public class AwsFactory {
      * @param env
      *            The environment where the {@link SqsClient} will be
      *            registered.
-     * @return A managed instance.
+     * @return A managed instance, shared with all other callers of this factory
+     *         that pass the same environment.
      */
     public SqsClient buildSQSClient(Environment env) {
-        LOG.info("Initialize Amazon SQS entry point");
-
-        // Initialize SQS Client based on credentials
-        SqsClient sqs;
-        if (isEmpty(awsAccessKeyId) || isEmpty(awsSecretKey)) {
-            sqs = SqsClient.builder()
-                    .credentialsProvider(DefaultCredentialsProvider.create())
-                    .region(isNotEmpty(awsRegion) ? Region.of(awsRegion) : DEFAULT_REGION)
-                    .build();
-        } else {
-            AwsBasicCredentials awsCreds = AwsBasicCredentials.create(awsAccessKeyId, awsSecretKey);
-            sqs = SqsClient.builder()
-                    .credentialsProvider(StaticCredentialsProvider.create(awsCreds))
-                    .region(isNotEmpty(awsRegion) ? Region.of(awsRegion) : DEFAULT_REGION)
-                    .build();
-        }
-
-        // Manage the SQS client with Dropwizard's lifecycle
-        env.lifecycle().manage(new ManagedAwsClient(sqs));
-
-        return sqs;
+        AwsCredentialsProvider credentials = credentialsProvider(env);
+        return clientRegistry.get(SqsClient.class, env,
+                () -> {
+                    LOG.info("Initialize Amazon SQS entry point");
+                    return configure(SqsClient.builder(), credentials);
+                },
+                // Manage the SQS client with Dropwizard's lifecycle
+                sqs -> env.lifecycle().manage(new ManagedAwsClient(sqs, prewarmConnections)));
     }
 
     /**
@@ -78,28 +92,51 @@ public class AwsFactory {
      * @param env
      *            The environment where the {@link SnsClient} will be
      *            registered.
-     * @return A managed instance.
+     * @return A managed instance, shared with all other callers of this factory
+     *         that pass the same environment.
      */
     public SnsClient buildSNSClient(Environment env) {
-        LOG.info("Initialize AMAZON SNS entry point");
+        AwsCredentialsProvider credentials = credentialsProvider(env);
+        return clientRegistry.get(SnsClient.class, env,
+                () -> {
+                    LOG.info("Initialize AMAZON SNS entry point");
+                    return configure(SnsClient.builder(), credentials);
+                },
+                sns -> env.lifecycle().manage(new ManagedAwsClient(sns, prewarmConnections)));
+    }
 
-        // Initialize SQS Client based on credentials
-        SnsClient sns;
+    private <B extends AwsClientBuilder<B, C>, C> C configure(B builder, AwsCredentialsProvider credentials) {
+        builder.credentialsProvider(credentials).region(region());
+        if (isNotEmpty(awsEndpoint)) {
+            builder.endpointOverride(endpoint());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Creates the credentials provider that is shared by all clients of this
+     * factory and environment. The default provider chain refreshes credentials
+     * in the background instead of blocking requests.
+     */
+    private AwsCredentialsProvider credentialsProvider(Environment env) {
         if (isEmpty(awsAccessKeyId) || isEmpty(awsSecretKey)) {
-            sns = SnsClient.builder()
-                    .credentialsProvider(DefaultCredentialsProvider.create())
-                    .region(isNotEmpty(awsRegion) ? Region.of(awsRegion) : DEFAULT_REGION)
-                    .build();
-        } else {
-            AwsBasicCredentials awsCreds = AwsBasicCredentials.create(awsAccessKeyId, awsSecretKey);
-            sns = SnsClient.builder()
-                    .credentialsProvider(StaticCredentialsProvider.create(awsCreds))
-                    .region(isNotEmpty(awsRegion) ? Region.of(awsRegion) : DEFAULT_REGION)
-                    .build();
+            return clientRegistry.get(DefaultCredentialsProvider.class, env,
+                    () -> DefaultCredentialsProvider.builder()
+                            .asyncCredentialUpdateEnabled(true)
+                            .build(),
+                    // Registered before the clients, so Dropwizard closes it after them
+                    provider -> env.lifecycle().manage(new ManagedAwsClient(provider)));
         }
+        return clientRegistry.get(StaticCredentialsProvider.class, env,
+                () -> StaticCredentialsProvider.create(AwsBasicCredentials.create(awsAccessKeyId, awsSecretKey)),
+                provider -> { });
+    }
 
-        env.lifecycle().manage(new ManagedAwsClient(sns));
+    private Region region() {
+        return isNotEmpty(awsRegion) ? Region.of(awsRegion) : DEFAULT_REGION;
+    }
 
-        return sns;
+    private URI endpoint() {
+        return isNotEmpty(awsEndpoint) ? URI.create(awsEndpoint) : null;
     }
 }
@@ -0,0 +1,45 @@
+package com.virginholidays.aws.dw.core;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import io.dropwizard.core.setup.Environment;
+
+/**
+ * Lazily creates and caches the aws clients and credentials providers of one
+ * factory, so that every client type is backed by a single client with a
+ * single HTTP connection pool. Clients are cached per {@link Environment}, so
+ * each environment manages and closes only the clients it was given.
+ */
+public class AwsClientRegistry {
+
+    private final Map<ClientKey, Object> clients = new ConcurrentHashMap<>();
+
+    private record ClientKey(Class<?> type, Environment env) {
+    }
+
+    /**
+     * Returns the cached client, creating it on first use. The factory must not
+     * call back into this registry.
+     *
+     * @param type
+     *            The client interface, e.g. {@code SqsClient.class}.
+     * @param env
+     *            The environment that manages the client.
+     * @param factory
+     *            Creates the client when it is not cached yet.
+     * @param onCreate
+     *            Called exactly once for a newly created client, e.g. to manage
+     *            it with the Dropwizard lifecycle.
+     * @return The shared client.
+     */
+    public <T> T get(Class<T> type, Environment env, Supplier<T> factory, Consumer<? super T> onCreate) {
+        return type.cast(clients.computeIfAbsent(new ClientKey(type, env), k -> {
+            T client = factory.get();
+            onCreate.accept(client);
+            return client;
+        }));
+    }
+}
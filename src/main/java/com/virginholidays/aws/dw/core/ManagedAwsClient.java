@@ -1,49 +1,109 @@
 package com.virginholidays.aws.dw.core;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import io.dropwizard.lifecycle.Managed;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import software.amazon.awssdk.services.sns.SnsClient;
 import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.ListQueuesRequest;
+import software.amazon.awssdk.utils.SdkAutoCloseable;
 
 /**
- * Manages an aws client with the Dropwizard lifecycle.
+ * Manages an aws client with the Dropwizard lifecycle. The client is closed
+ * exactly once, no matter how often {@link #stop()} is called.
  */
 public class ManagedAwsClient implements Managed {
 
     private static final Logger LOG = LoggerFactory.getLogger(ManagedAwsClient.class);
 
-    private SqsClient sqsClient;
-    private SnsClient snsClient;
+    private final SdkAutoCloseable client;
+    private final String name;
+    private final Runnable prewarm;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
 
     public ManagedAwsClient(SqsClient sqsClient) {
+        this(sqsClient, false);
+    }
+
+    /**
+     * @param sqsClient
+     *            The client to manage.
+     * @param prewarm
+     *            When true, a lightweight request is sent on start to set up
+     *            the connection pool and resolve credentials before the first
+     *            real request.
+     */
+    public ManagedAwsClient(SqsClient sqsClient, boolean prewarm) {
         if (sqsClient == null) {
             throw new IllegalArgumentException("aws sqs client cannot be null");
         }
 
-        this.sqsClient = sqsClient;
+        this.client = sqsClient;
+        this.name = "sqs client";
+        this.prewarm = prewarm ? () -> sqsClient.listQueues(ListQueuesRequest.builder().maxResults(1).build()) : null;
     }
 
     public ManagedAwsClient(SnsClient snsClient) {
+        this(snsClient, false);
+    }
+
+    /**
+     * @param snsClient
+     *            The client to manage.
+     * @param prewarm
+     *            When true, a lightweight request is sent on start to set up
+     *            the connection pool and resolve credentials before the first
+     *            real request.
+     */
+    public ManagedAwsClient(SnsClient snsClient, boolean prewarm) {
         if (snsClient == null) {
             throw new IllegalArgumentException("aws sns client cannot be null");
         }
-        this.snsClient = snsClient;
+
+        this.client = snsClient;
+        this.name = "sns client";
+        this.prewarm = prewarm ? snsClient::listTopics : null;
+    }
+
+    /**
+     * Manages any other closeable SDK resource, such as a shared credentials
+     * provider.
+     *
+     * @param resource
+     *            The resource to close on stop.
+     */
+    public ManagedAwsClient(SdkAutoCloseable resource) {
+        if (resource == null) {
+            throw new IllegalArgumentException("aws resource cannot be null");
+        }
+
+        this.client = resource;
+        this.name = "resource";
+        this.prewarm = null;
     }
 
     @Override
     public void start() {
-        // Do nothing...
+        if (prewarm == null) {
+            return;
+        }
+
+        LOG.info("Prewarming aws {}, {}", name, client.getClass());
+        try {
+            prewarm.run();
+        } catch (Exception e) {
+            // The client is still usable, it just pays the set-up cost on its first request
+            LOG.warn("Prewarming aws {} failed: {}", name, e.getMessage());
+        }
     }
 
     @Override
     public void stop() {
-        if(sqsClient != null) {
-            LOG.info("Shutting down aws sqs client, {}", sqsClient.getClass());
-            sqsClient.close();
-        } else if (snsClient != null) {
-            LOG.info("Shutting down aws sns client, {}", snsClient.getClass());
-            snsClient.close();
+        if (closed.compareAndSet(false, true)) {
+            LOG.info("Shutting down aws {}, {}", name, client.getClass());
+            client.close();
         }
     }
 
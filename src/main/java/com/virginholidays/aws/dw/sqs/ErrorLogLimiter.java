@@ -0,0 +1,83 @@
+package com.virginholidays.aws.dw.sqs;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits the number of error log events per error path and error class within
+ * a fixed time window, and counts the events that were suppressed in the
+ * meantime.
+ */
+final class ErrorLogLimiter {
+
+    /**
+     * Returned by {@link #tryAcquire(String, Class)} when the event must not be
+     * logged.
+     */
+    static final long SUPPRESSED = -1;
+
+    private final int maxPerWindow;
+    private final long windowNanos;
+    private final LongSupplier nanoClock;
+    private final Map<Key, Window> windows = new ConcurrentHashMap<>();
+
+    ErrorLogLimiter(int maxPerWindow, long window, TimeUnit unit) {
+        this(maxPerWindow, window, unit, System::nanoTime);
+    }
+
+    ErrorLogLimiter(int maxPerWindow, long window, TimeUnit unit, LongSupplier nanoClock) {
+        if (maxPerWindow < 1) {
+            throw new IllegalArgumentException("Max per window must be positive!");
+        }
+
+        this.maxPerWindow = maxPerWindow;
+        this.windowNanos = unit.toNanos(window);
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * @param path
+     *            Identifies where the error occurred, so that a burst of errors
+     *            on one path cannot use up the budget of another.
+     * @param errorClass
+     *            The class of the error that is about to be logged.
+     * @return {@link #SUPPRESSED} when the event must not be logged, otherwise
+     *         the number of events of this path and class that were suppressed
+     *         since the last logged one.
+     */
+    long tryAcquire(String path, Class<?> errorClass) {
+        long now = nanoClock.getAsLong();
+        return windows.computeIfAbsent(new Key(path, errorClass), k -> new Window(now)).tryAcquire(now);
+    }
+
+    private record Key(String path, Class<?> errorClass) {
+    }
+
+    private final class Window {
+
+        private long start;
+        private int logged;
+        private long suppressed;
+
+        private Window(long start) {
+            this.start = start;
+        }
+
+        private synchronized long tryAcquire(long now) {
+            if (now - start >= windowNanos) {
+                start = now;
+                logged = 0;
+            }
+            if (logged >= maxPerWindow) {
+                suppressed++;
+                return SUPPRESSED;
+            }
+            logged++;
+            long result = suppressed;
+            suppressed = 0;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.virginholidays.aws.dw.sqs;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses message bodies with gzip. Since SQS message bodies must be text,
+ * the compressed bytes are Base64 encoded.
+ * <p>
+ * A small pool of {@link Deflater}, {@link Inflater} and working arrays is
+ * shared by all callers. The JDK gzip streams allocate and release native zlib
+ * state for every stream, so this codec writes the gzip header and trailer
+ * itself to drive the pooled instances directly. Bodies written by the JDK
+ * gzip streams and the gzip tool are decoded as well.
+ * <p>
+ * Decoding stops with an {@link IllegalArgumentException} once the decoded
+ * body exceeds the configured maximum size, so a small compressed body cannot
+ * exhaust the listener's memory.
+ */
+public class GzipMessageCodec implements MessageCodec {
+
+    public static final String NAME = "gzip";
+
+    /**
+     * Default maximum size of a decoded body, in bytes.
+     */
+    public static final int DEFAULT_MAX_DECODED_SIZE = 4 * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Pooled arrays that grew beyond the SQS message size limit are released
+     * after use.
+     */
+    private static final int MAX_POOLED_SIZE = 256 * 1024;
+
+    /**
+     * Encoding and decoding are CPU bound, so more idle buffers than processors
+     * are rarely reused. Buffers that do not fit into the pool are released.
+     */
+    private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Gzip member header: magic, deflate method, no flags, no mtime, no extra
+     * flags, unknown OS.
+     */
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int TRAILER_SIZE = 8;
+
+    private static final int FLAG_HEADER_CRC = 2;
+    private static final int FLAG_EXTRA = 4;
+    private static final int FLAG_NAME = 8;
+    private static final int FLAG_COMMENT = 16;
+
+    private final int maxDecodedSize;
+    private final BlockingQueue<Buffers> pool = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    public GzipMessageCodec() {
+        this(DEFAULT_MAX_DECODED_SIZE);
+    }
+
+    /**
+     * @param maxDecodedSize
+     *            Maximum size of a decoded body, in bytes.
+     */
+    public GzipMessageCodec(int maxDecodedSize) {
+        if (maxDecodedSize < 1 || maxDecodedSize == Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Max decoded size must be positive and below Integer.MAX_VALUE!");
+        }
+
+        this.maxDecodedSize = maxDecodedSize;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String encode(String body) {
+        Buffers b = borrow();
+        try {
+            byte[] input = body.getBytes(StandardCharsets.UTF_8);
+
+            byte[] compressed = b.compressed;
+            System.arraycopy(HEADER, 0, compressed, 0, HEADER.length);
+            int length = HEADER.length;
+
+            Deflater deflater = b.deflater;
+            deflater.reset();
+            deflater.setInput(input);
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (length == compressed.length) {
+                    compressed = b.compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                }
+                length += deflater.deflate(compressed, length, compressed.length - length);
+            }
+
+            b.crc.reset();
+            b.crc.update(input);
+            compressed = b.compressed = ensureCapacity(compressed, length + TRAILER_SIZE);
+            length = writeIntLE(compressed, length, (int) b.crc.getValue());
+            length = writeIntLE(compressed, length, input.length);
+
+            return Base64.getEncoder().encodeToString(Arrays.copyOf(compressed, length));
+        } finally {
+            giveBack(b);
+        }
+    }
+
+    @Override
+    public String decode(String body) {
+        Buffers b = borrow();
+        try {
+            byte[] compressed = b.compressed = ensureCapacity(b.compressed, (body.length() + 3) / 4 * 3);
+            int length = Base64.getDecoder().decode(body.getBytes(StandardCharsets.ISO_8859_1), compressed);
+            int offset = skipHeader(compressed, length);
+
+            Inflater inflater = b.inflater;
+            inflater.reset();
+            inflater.setInput(compressed, offset, length - offset - TRAILER_SIZE);
+
+            // Inflating one byte beyond the maximum tells a body of exactly the maximum size from a larger one
+            int limit = maxDecodedSize + 1;
+            byte[] plain = b.plain;
+            int plainLength = 0;
+            while (!inflater.finished()) {
+                if (plainLength == plain.length) {
+                    plain = b.plain = Arrays.copyOf(plain, (int) Math.min(2L * plain.length, limit));
+                }
+                int read = inflater.inflate(plain, plainLength, Math.min(plain.length, limit) - plainLength);
+                plainLength += read;
+                if (plainLength > maxDecodedSize) {
+                    throw new IllegalArgumentException("Decoded message body exceeds " + maxDecodedSize + " bytes");
+                }
+                if (read == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalArgumentException("Truncated gzip message body");
+                }
+            }
+
+            b.crc.reset();
+            b.crc.update(plain, 0, plainLength);
+            int trailer = length - TRAILER_SIZE;
+            if (readIntLE(compressed, trailer) != (int) b.crc.getValue()
+                    || readIntLE(compressed, trailer + 4) != plainLength) {
+                throw new IllegalArgumentException("Corrupt gzip message body");
+            }
+            return new String(plain, 0, plainLength, StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt gzip message body", e);
+        } finally {
+            giveBack(b);
+        }
+    }
+
+    /**
+     * @return The offset of the deflate data behind the gzip header.
+     */
+    private static int skipHeader(byte[] data, int length) {
+        if (length < HEADER.length + TRAILER_SIZE || data[0] != HEADER[0] || data[1] != HEADER[1]
+                || data[2] != Deflater.DEFLATED) {
+            throw new IllegalArgumentException("Not a gzip message body");
+        }
+
+        int flags = data[3] & 0xff;
+        int offset = HEADER.length;
+        if ((flags & FLAG_EXTRA) != 0) {
+            // Bounds are checked below, the trailer is always present
+            offset += 2 + ((data[offset] & 0xff) | (data[offset + 1] & 0xff) << 8);
+        }
+        if ((flags & FLAG_NAME) != 0) {
+            offset = skipZeroTerminated(data, offset, length);
+        }
+        if ((flags & FLAG_COMMENT) != 0) {
+            offset = skipZeroTerminated(data, offset, length);
+        }
+        if ((flags & FLAG_HEADER_CRC) != 0) {
+            offset += 2;
+        }
+        if (offset > length - TRAILER_SIZE) {
+            throw new IllegalArgumentException("Truncated gzip message body");
+        }
+        return offset;
+    }
+
+    private static int skipZeroTerminated(byte[] data, int offset, int length) {
+        while (offset < length && data[offset] != 0) {
+            offset++;
+        }
+        return offset + 1;
+    }
+
+    private static int writeIntLE(byte[] data, int offset, int value) {
+        data[offset] = (byte) value;
+        data[offset + 1] = (byte) (value >>> 8);
+        data[offset + 2] = (byte) (value >>> 16);
+        data[offset + 3] = (byte) (value >>> 24);
+        return offset + 4;
+    }
+
+    private static int readIntLE(byte[] data, int offset) {
+        return (data[offset] & 0xff) | (data[offset + 1] & 0xff) << 8
+                | (data[offset + 2] & 0xff) << 16 | (data[offset + 3] & 0xff) << 24;
+    }
+
+    private Buffers borrow() {
+        Buffers b = pool.poll();
+        return b != null ? b : new Buffers();
+    }
+
+    private void giveBack(Buffers b) {
+        b.recycle();
+        if (!pool.offer(b)) {
+            b.close();
+        }
+    }
+
+    private static byte[] ensureCapacity(byte[] array, int capacity) {
+        return array.length >= capacity ? array : Arrays.copyOf(array, Math.max(capacity, array.length * 2));
+    }
+
+    private static final class Buffers {
+
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final Inflater inflater = new Inflater(true);
+        private final CRC32 crc = new CRC32();
+
+        private byte[] compressed = new byte[BUFFER_SIZE];
+        private byte[] plain = new byte[BUFFER_SIZE];
+
+        private void recycle() {
+            if (compressed.length > MAX_POOLED_SIZE) {
+                compressed = new byte[BUFFER_SIZE];
+            }
+            if (plain.length > MAX_POOLED_SIZE) {
+                plain = new byte[BUFFER_SIZE];
+            }
+        }
+
+        private void close() {
+            deflater.end();
+            inflater.end();
+        }
+    }
+}
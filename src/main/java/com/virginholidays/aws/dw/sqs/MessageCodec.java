@@ -0,0 +1,32 @@
+package com.virginholidays.aws.dw.sqs;
+
+/**
+ * Encodes message bodies before they are dispatched to SQS and decodes them
+ * again before they are handed to a {@link MessageHandler}. The name of the
+ * codec travels with the message in the
+ * {@link MessageHandler#ATTR_CONTENT_ENCODING} attribute.
+ *
+ * @see MessageCodecs
+ */
+public interface MessageCodec {
+
+    /**
+     * @return The unique name of this codec, as used in the
+     *         {@link MessageHandler#ATTR_CONTENT_ENCODING} attribute.
+     */
+    String getName();
+
+    /**
+     * @param body
+     *            The plain message body.
+     * @return The encoded body, which must be valid SQS message text.
+     */
+    String encode(String body);
+
+    /**
+     * @param body
+     *            A message body that was encoded by this codec.
+     * @return The plain message body.
+     */
+    String decode(String body);
+}
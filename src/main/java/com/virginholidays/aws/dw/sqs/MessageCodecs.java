@@ -0,0 +1,76 @@
+package com.virginholidays.aws.dw.sqs;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+
+/**
+ * Registry of the {@link MessageCodec}s that the {@link SqsListenerImpl} can
+ * decode. The {@link GzipMessageCodec} is registered by default.
+ */
+public final class MessageCodecs {
+
+    /**
+     * The default gzip codec.
+     */
+    public static final MessageCodec GZIP = new GzipMessageCodec();
+
+    private static final Map<String, MessageCodec> CODECS = new ConcurrentHashMap<>();
+
+    static {
+        register(GZIP);
+    }
+
+    private MessageCodecs() {
+    }
+
+    /**
+     * Makes a custom codec available to all listeners.
+     *
+     * @param codec
+     *            The codec to register, replacing any codec with the same name.
+     */
+    public static void register(MessageCodec codec) {
+        if (codec == null) {
+            throw new IllegalArgumentException("Message codec cannot be null!");
+        }
+
+        CODECS.put(codec.getName().toLowerCase(), codec);
+    }
+
+    /**
+     * @param name
+     *            The name of the codec.
+     * @return The registered codec.
+     * @throws IllegalArgumentException
+     *             When no codec was registered under the supplied name.
+     */
+    public static MessageCodec forName(String name) {
+        MessageCodec codec = CODECS.get(name.toLowerCase());
+        if (codec == null) {
+            throw new IllegalArgumentException("Unknown message codec: " + name);
+        }
+        return codec;
+    }
+
+    /**
+     * Decodes the body of the supplied message according to its
+     * {@link MessageHandler#ATTR_CONTENT_ENCODING} attribute.
+     *
+     * @param message
+     *            The message as received from SQS.
+     * @return The same message when it was not encoded, or a copy with the
+     *         decoded body otherwise.
+     */
+    public static Message decode(Message message) {
+        MessageAttributeValue encoding = message.messageAttributes().get(MessageHandler.ATTR_CONTENT_ENCODING);
+        if (encoding == null) {
+            return message;
+        }
+
+        String body = forName(encoding.stringValue()).decode(message.body());
+        return message.toBuilder().body(body).build();
+    }
+}
@@ -1,15 +1,20 @@
 package com.virginholidays.aws.dw.sqs;
 
+import org.slf4j.MDC;
 import software.amazon.awssdk.services.sqs.SqsClient;
 import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
 import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.UUID;
 
 /**
  * Helps clients to dispatch messages to SQS, that can be handled by a matching
- * {@link MessageHandler}.
+ * {@link MessageHandler}. Every message carries the trace id of the current
+ * thread ({@link MessageHandler#MDC_TRACE_ID}, or a new one when absent) and
+ * its dispatch time, so the listener can restore the trace and measure
+ * end-to-end latency.
  * 
  * @author Veysel Tosun
  */
@@ -34,17 +39,94 @@ public class MessageDispatcher {
 
     public static void dispatchDelayed(String messageBody, String queueUrl,
                                        String messageType, SqsClient sqsClient, int delaySeconds) {
-        sendMessage(messageBody, queueUrl, prepareMessageAttributes(messageType), sqsClient, delaySeconds);
+        dispatchDelayed(messageBody, queueUrl, messageType, sqsClient, null, 0, delaySeconds);
+    }
+
+    /**
+     * Dispatches a message to SQS, encoding its body with the supplied codec
+     * when it reaches the threshold. The {@link SqsListenerImpl} decodes the
+     * body again before it is handed to a {@link MessageHandler}.
+     *
+     * @param messageBody
+     *            The body of the message.
+     * @param queueUrl
+     *            The SQS queue URL.
+     * @param messageType
+     *            The messageType.
+     * @param sqsClient
+     *            The SQS client.
+     * @param codec
+     *            The codec used to encode large bodies, e.g.
+     *            {@link MessageCodecs#GZIP}.
+     * @param threshold
+     *            Minimum body size, in UTF-8 bytes (as limited and billed by
+     *            SQS), that will be encoded.
+     */
+    public static void dispatch(String messageBody, String queueUrl, String messageType, SqsClient sqsClient,
+                                MessageCodec codec, int threshold) {
+        dispatchDelayed(messageBody, queueUrl, messageType, sqsClient, codec, threshold, 0);
+    }
+
+    public static void dispatchDelayed(String messageBody, String queueUrl, String messageType, SqsClient sqsClient,
+                                       MessageCodec codec, int threshold, int delaySeconds) {
+        Map<String, MessageAttributeValue> messageAttributes = prepareMessageAttributes(messageType);
+
+        String body = messageBody;
+        if (codec != null) {
+            int size = utf8Length(messageBody);
+            if (size >= threshold) {
+                String encoded = codec.encode(messageBody);
+                // Only worth it when the encoding actually made the body smaller
+                if (utf8Length(encoded) < size) {
+                    body = encoded;
+                    messageAttributes.put(MessageHandler.ATTR_CONTENT_ENCODING, stringAttribute(codec.getName()));
+                }
+            }
+        }
+
+        sendMessage(body, queueUrl, messageAttributes, sqsClient, delaySeconds);
+    }
+
+    /**
+     * @return The UTF-8 encoded size of the supplied text, without encoding it.
+     */
+    private static int utf8Length(String text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
     }
 
     private static Map<String, MessageAttributeValue> prepareMessageAttributes(String messageType) {
         Map<String, MessageAttributeValue> messageAttributes = new HashMap<>();
+        messageAttributes.put(MessageHandler.ATTR_MESSAGE_TYPE, stringAttribute(messageType));
+        messageAttributes.put(MessageHandler.ATTR_TRACE_ID, stringAttribute(currentTraceId()));
+        messageAttributes.put(MessageHandler.ATTR_DISPATCH_TIMESTAMP, MessageAttributeValue.builder()
+                .dataType("Number")
+                .stringValue(Long.toString(System.currentTimeMillis()))
+                .build());
+        return messageAttributes;
+    }
 
-        MessageAttributeValue messageAttributeValue =
-                MessageAttributeValue.builder().dataType("String").stringValue(messageType).build();
+    private static String currentTraceId() {
+        String traceId = MDC.get(MessageHandler.MDC_TRACE_ID);
+        return traceId != null ? traceId : UUID.randomUUID().toString();
+    }
 
-        messageAttributes.put(MessageHandler.ATTR_MESSAGE_TYPE, messageAttributeValue);
-        return messageAttributes;
+    private static MessageAttributeValue stringAttribute(String value) {
+        return MessageAttributeValue.builder().dataType("String").stringValue(value).build();
     }
 
     private static void sendMessage(String messageBody, String queueUrl,
@@ -15,7 +15,43 @@ public abstract class MessageHandler {
      */
     public static final String ATTR_MESSAGE_TYPE = "MessageType";
 
+    /**
+     * Message attribute name that identifies the {@link MessageCodec} of an
+     * encoded message body.
+     */
+    public static final String ATTR_CONTENT_ENCODING = "ContentEncoding";
+
+    /**
+     * Message attribute name that carries the trace (correlation) id of the
+     * dispatching request.
+     */
+    public static final String ATTR_TRACE_ID = "TraceId";
+
+    /**
+     * Message attribute name that carries the epoch millis at which the
+     * message was dispatched.
+     */
+    public static final String ATTR_DISPATCH_TIMESTAMP = "DispatchTimestamp";
+
+    /**
+     * MDC key of the trace id. The {@link MessageDispatcher} propagates the
+     * trace id found under this key, and the {@link SqsListenerImpl} restores it
+     * while a message is being handled.
+     */
+    public static final String MDC_TRACE_ID = "traceId";
+
+    /**
+     * MDC key of the type of the message that is being handled.
+     */
+    public static final String MDC_MESSAGE_TYPE = "messageType";
+
+    /**
+     * MDC key of the SQS id of the message that is being handled.
+     */
+    public static final String MDC_MESSAGE_ID = "messageId";
+
     private final String messageType;
+    private final MessageThrottle throttle;
 
     /**
      * Implementors are strongly encouraged to call this constructor with a
@@ -25,11 +61,41 @@ public abstract class MessageHandler {
      *            Identifies the type of messages that this handler will handle.
      */
     protected MessageHandler(String messageType) {
+        this(messageType, null);
+    }
+
+    /**
+     * Creates a handler whose messages are subject to the supplied bulkhead and
+     * rate limit before they are dispatched.
+     *
+     * @param messageType
+     *            Identifies the type of messages that this handler will handle.
+     * @param throttle
+     *            Limits concurrency and rate of this message type, or null for
+     *            no limits.
+     */
+    protected MessageHandler(String messageType, MessageThrottle throttle) {
         if (messageType == null) {
             throw new IllegalArgumentException("Message type cannot be null!");
         }
 
         this.messageType = messageType;
+        this.throttle = throttle;
+    }
+
+    /**
+     * @return The type of messages that this handler will handle.
+     */
+    public String getMessageType() {
+        return messageType;
+    }
+
+    /**
+     * @return The throttle that applies to this handler, or null when its
+     *         messages are not limited.
+     */
+    public MessageThrottle getThrottle() {
+        return throttle;
     }
 
     /**
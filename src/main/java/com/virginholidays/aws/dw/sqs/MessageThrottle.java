@@ -0,0 +1,141 @@
+package com.virginholidays.aws.dw.sqs;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bulkhead and token-bucket rate limit for a single message type. A
+ * {@link MessageHandler} that is configured with a throttle will only receive
+ * messages while a concurrency permit and a rate token are available; any
+ * other message of that type is handed back to the queue by the
+ * {@link SqsListenerImpl} with a visibility timeout of
+ * {@link #getDeferSeconds()}.
+ * <p>
+ * When concurrency is limited, the listener handles the messages of this type
+ * on its own executor of {@link #getMaxConcurrent()} threads, so that a slow
+ * downstream of this type does not delay the messages of other types.
+ * <p>
+ * A single instance may be shared between several listeners (and handlers) to
+ * enforce one limit across all of them.
+ */
+public class MessageThrottle {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final int maxConcurrent;
+    private final double permitsPerSecond;
+    private final int deferSeconds;
+
+    private final Semaphore bulkhead;
+    private final LongAdder throttled = new LongAdder();
+
+    private double tokens;
+    private long lastRefillNanos;
+
+    /**
+     * @param maxConcurrent
+     *            Maximum number of messages of this type that may be handled
+     *            concurrently, or zero for no limit.
+     * @param permitsPerSecond
+     *            Maximum sustained number of messages of this type that may be
+     *            handled per second, or zero for no limit. Bursts of up to
+     *            one second worth of permits are allowed.
+     * @param deferSeconds
+     *            Visibility timeout applied to messages that are handed back to
+     *            the queue, at least one second. A shorter timeout would make
+     *            the listener receive the same messages again right away and
+     *            spin on the saturated type.
+     */
+    public MessageThrottle(int maxConcurrent, double permitsPerSecond, int deferSeconds) {
+        if (maxConcurrent < 0) {
+            throw new IllegalArgumentException("Max concurrent cannot be negative!");
+        }
+        if (permitsPerSecond < 0) {
+            throw new IllegalArgumentException("Permits per second cannot be negative!");
+        }
+        if (deferSeconds < 1) {
+            throw new IllegalArgumentException("Defer seconds must be at least 1!");
+        }
+
+        this.maxConcurrent = maxConcurrent;
+        this.permitsPerSecond = permitsPerSecond;
+        this.deferSeconds = deferSeconds;
+
+        bulkhead = maxConcurrent > 0 ? new Semaphore(maxConcurrent) : null;
+        tokens = Math.max(permitsPerSecond, 1);
+        lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Tries to reserve capacity for a single message. Every successful call
+     * must be paired with a call to {@link #release()}.
+     *
+     * @return True when the message may be handled now, false when this
+     *         message type is saturated.
+     */
+    public boolean tryAcquire() {
+        if (bulkhead != null && !bulkhead.tryAcquire()) {
+            throttled.increment();
+            return false;
+        }
+        if (permitsPerSecond > 0 && !tryConsumeToken()) {
+            if (bulkhead != null) {
+                bulkhead.release();
+            }
+            throttled.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the concurrency permit that was reserved by a successful
+     * {@link #tryAcquire()}.
+     */
+    public void release() {
+        if (bulkhead != null) {
+            bulkhead.release();
+        }
+    }
+
+    private synchronized boolean tryConsumeToken() {
+        long now = System.nanoTime();
+        double refill = (now - lastRefillNanos) * permitsPerSecond / NANOS_PER_SECOND;
+        tokens = Math.min(Math.max(permitsPerSecond, 1), tokens + refill);
+        lastRefillNanos = now;
+
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+
+    /**
+     * @return The number of messages currently being handled under this
+     *         throttle, or zero when concurrency is not limited.
+     */
+    public int getInFlight() {
+        return bulkhead != null ? maxConcurrent - bulkhead.availablePermits() : 0;
+    }
+
+    /**
+     * @return The total number of messages that were refused by this throttle.
+     */
+    public long getThrottledCount() {
+        return throttled.sum();
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    public int getDeferSeconds() {
+        return deferSeconds;
+    }
+}
@@ -1,23 +1,49 @@
 package com.virginholidays.aws.dw.sqs;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
 import com.virginholidays.aws.AwsFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.ChangeMessageVisibilityRequest;
 import software.amazon.awssdk.services.sqs.model.DeleteMessageRequest;
 import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.MessageSystemAttributeName;
 import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
 
 /**
  * Listens to a queue and dispatches received messages to the supplied
  * {@link MessageHandler} implementation.
+ * <p>
+ * While a message is handled, its trace id, type and id are available in the
+ * MDC. Per message type, the listener records the time messages spent in the
+ * queue ({@code queue-dwell}), in the handler ({@code handler}) and from
+ * dispatch to completion ({@code end-to-end}).
+ * <p>
+ * Messages of a handler with a concurrency limited {@link MessageThrottle} are
+ * handled (and deleted) on a bounded executor of that message type, so a slow
+ * type never holds up the receive loop; all other messages are handled on the
+ * receive thread.
  * 
  * @see AwsFactory
  * @see SqsListenerHealthCheck
@@ -34,12 +60,33 @@ public class SqsListenerImpl implements SqsListener {
      */
     private static final String ATTR_ALL = "All";
 
+    /**
+     * Message bodies are truncated to this length in error logs.
+     */
+    private static final int MAX_LOGGED_BODY_LENGTH = 256;
+
+    /**
+     * Error log events per error class and minute, further events are only
+     * counted.
+     */
+    private static final int MAX_ERROR_LOGS_PER_MINUTE = 10;
+
+    private static final String PROCESSING_ERRORS = "processing";
+    private static final String QUEUE_ERRORS = "queue";
+
+    private static final String SUPPRESSED_ERRORS_METRIC =
+            MetricRegistry.name(SqsListenerImpl.class, "errors", "suppressed");
+
     private final AtomicBoolean healthy = new AtomicBoolean(true);
+    private final ErrorLogLimiter errorLogLimiter =
+            new ErrorLogLimiter(MAX_ERROR_LOGS_PER_MINUTE, 1, TimeUnit.MINUTES);
     private final SqsClient sqsClient;
     private final String sqsListenQueueUrl;
     private final Set<MessageHandler> handlers;
     private final String interruptedMsg;
 
+    private MetricRegistry metrics;
+    private Map<MessageHandler, ExecutorService> bulkheads = Map.of();
     private Thread pollingThread;
 
     /**
@@ -52,19 +99,104 @@ public class SqsListenerImpl implements SqsListener {
      * @param handlers
      *            All handlers will be called for every message that this
      *            instance receives.
+     * @see #setMetrics(MetricRegistry)
      */
     @Inject
     public SqsListenerImpl(SqsClient sqsClient, @Named("sqsListenQueueUrl") String sqsListenQueueUrl,
                            Set<MessageHandler> handlers) {
+        this(sqsClient, sqsListenQueueUrl, handlers, new MetricRegistry());
+    }
+
+    /**
+     * @param sqsClient
+     *            Managed {@link SqsClient} instance that this listener will use
+     *            to connect to its queue.
+     * @param sqsListenQueueUrl
+     *            URL of the queue where this instance will listen to.
+     * @param handlers
+     *            All handlers will be called for every message that this
+     *            instance receives.
+     * @param metrics
+     *            Registry where per message type metrics (e.g. latency and
+     *            throttling) of this listener will be reported, typically the
+     *            {@link io.dropwizard.core.setup.Environment#metrics()} registry.
+     */
+    public SqsListenerImpl(SqsClient sqsClient, String sqsListenQueueUrl,
+                           Set<MessageHandler> handlers, MetricRegistry metrics) {
         this.sqsClient = sqsClient;
         this.sqsListenQueueUrl = sqsListenQueueUrl;
         this.handlers = handlers;
+        this.metrics = metrics;
 
         interruptedMsg = "Stop listening to queue: " + sqsListenQueueUrl;
     }
 
+    /**
+     * Replaces the registry where the metrics of this listener are reported.
+     * Guice injects it when a {@link MetricRegistry} is bound, e.g. to
+     * {@link io.dropwizard.core.setup.Environment#metrics()}; without a binding
+     * the metrics are kept in a private registry. Must be called before
+     * {@link #start()}.
+     *
+     * @param metrics
+     *            The registry to report to.
+     */
+    @Inject(optional = true)
+    public void setMetrics(MetricRegistry metrics) {
+        if (metrics == null) {
+            throw new IllegalArgumentException("Metric registry cannot be null!");
+        }
+
+        this.metrics = metrics;
+    }
+
+    private void registerThrottleGauges() {
+        for (MessageHandler handler : handlers) {
+            MessageThrottle throttle = handler.getThrottle();
+            if (throttle == null) {
+                continue;
+            }
+
+            // Listeners sharing a registry share the gauge, whichever registered it first
+            String name = metricName(handler, "in-flight");
+            Gauge<?> gauge = metrics.<Gauge<?>>gauge(name, InFlightGauge::new);
+            if (gauge instanceof InFlightGauge inFlight) {
+                inFlight.throttles.add(throttle);
+            } else {
+                LOG.warn("Metric '{}' is registered by another component, in-flight messages are not reported", name);
+            }
+        }
+    }
+
+    private Map<MessageHandler, ExecutorService> createBulkheads() {
+        Map<MessageHandler, ExecutorService> executors = new HashMap<>();
+        for (MessageHandler handler : handlers) {
+            MessageThrottle throttle = handler.getThrottle();
+            if (throttle != null && throttle.getMaxConcurrent() > 0) {
+                // The throttle's permits bound the queued and running tasks, so the queue never grows beyond them
+                executors.put(handler, new ThreadPoolExecutor(throttle.getMaxConcurrent(),
+                        throttle.getMaxConcurrent(), 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                        bulkheadThreadFactory(handler)));
+            }
+        }
+        return executors;
+    }
+
+    private ThreadFactory bulkheadThreadFactory(MessageHandler handler) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> new Thread(runnable,
+                "sqs-bulkhead-" + handler.getMessageType() + "-" + count.incrementAndGet());
+    }
+
+    private static String metricName(MessageHandler handler, String name) {
+        return MetricRegistry.name(SqsListenerImpl.class, handler.getMessageType(), name);
+    }
+
     @Override
     public void start() {
+        registerThrottleGauges();
+        bulkheads = createBulkheads();
+
         pollingThread = new Thread(this::pollMessages);
         pollingThread.start();
     }
@@ -90,6 +222,7 @@ public class SqsListenerImpl implements SqsListener {
     private ReceiveMessageRequest createReceiveMessageRequest() {
         return ReceiveMessageRequest.builder()
                 .messageAttributeNames(ATTR_ALL)
+                .messageSystemAttributeNames(MessageSystemAttributeName.SENT_TIMESTAMP)
                 .queueUrl(sqsListenQueueUrl)
                 .build();
     }
@@ -105,27 +238,159 @@ public class SqsListenerImpl implements SqsListener {
     }
 
     private void processMessageWithHandlers(Message msg, int index, List<Message> messages) {
+        putTraceContext(msg);
         try {
-            for (MessageHandler handler : handlers) {
-                if (tryHandleMessage(handler, msg)) {
-                    deleteMessage(msg, index, messages);
-                    break; // Stop after first successful handler
-                }
+            Message decoded = MessageCodecs.decode(msg);
+            MessageHandler handler = findHandler(decoded);
+            if (handler != null) {
+                MDC.put(MessageHandler.MDC_MESSAGE_TYPE, handler.getMessageType());
+                dispatchToHandler(handler, decoded, index, messages);
+            }
+        } catch (Exception e) {
+            logProcessingError(msg, e);
+        } finally {
+            clearTraceContext();
+        }
+    }
+
+    private MessageHandler findHandler(Message msg) {
+        for (MessageHandler handler : handlers) {
+            LOG.debug("Calling message handler: {}", handler);
+            if (handler.canHandle(msg)) {
+                LOG.debug("Message accepted.");
+                return handler; // Stop at the first matching handler
+            }
+            LOG.debug("Message refused.");
+        }
+        return null;
+    }
+
+    /**
+     * Handles and deletes the message within the bounds of the handler's
+     * {@link MessageThrottle}, if any. A message of a saturated type is handed
+     * back to the queue instead.
+     */
+    private void dispatchToHandler(MessageHandler handler, Message msg, int index, List<Message> messages) {
+        MessageThrottle throttle = handler.getThrottle();
+        if (throttle == null) {
+            handleTraced(handler, msg);
+            deleteMessage(msg, index, messages);
+            return;
+        }
+        if (!throttle.tryAcquire()) {
+            deferMessage(handler, msg, throttle.getDeferSeconds());
+            return;
+        }
+
+        ExecutorService bulkhead = bulkheads.get(handler);
+        if (bulkhead == null) {
+            try {
+                handleTraced(handler, msg);
+            } finally {
+                throttle.release();
             }
+            deleteMessage(msg, index, messages);
+            return;
+        }
+
+        try {
+            bulkhead.execute(() -> handleInBulkhead(handler, throttle, msg, index, messages));
+        } catch (RejectedExecutionException e) {
+            // The listener is stopping
+            throttle.release();
+            deferMessage(handler, msg, throttle.getDeferSeconds());
+        }
+    }
+
+    private void handleInBulkhead(MessageHandler handler, MessageThrottle throttle, Message msg,
+                                  int index, List<Message> messages) {
+        putTraceContext(msg);
+        MDC.put(MessageHandler.MDC_MESSAGE_TYPE, handler.getMessageType());
+        try {
+            handleTraced(handler, msg);
+            deleteMessage(msg, index, messages);
         } catch (Exception e) {
             logProcessingError(msg, e);
+        } finally {
+            throttle.release();
+            clearTraceContext();
         }
     }
 
-    private boolean tryHandleMessage(MessageHandler handler, Message msg) {
-        LOG.debug("Calling message handler: {}", handler);
-        if (handler.canHandle(msg)) {
-            LOG.debug("Message accepted.");
+    /**
+     * Puts the trace id and message id in the MDC until
+     * {@link #clearTraceContext()}, so that the handler's log events and the
+     * listener's own, including a processing error, can be correlated.
+     */
+    private static void putTraceContext(Message msg) {
+        String traceId = attributeValue(msg, MessageHandler.ATTR_TRACE_ID);
+        if (traceId != null) {
+            MDC.put(MessageHandler.MDC_TRACE_ID, traceId);
+        }
+        MDC.put(MessageHandler.MDC_MESSAGE_ID, msg.messageId());
+    }
+
+    private static void clearTraceContext() {
+        MDC.remove(MessageHandler.MDC_TRACE_ID);
+        MDC.remove(MessageHandler.MDC_MESSAGE_TYPE);
+        MDC.remove(MessageHandler.MDC_MESSAGE_ID);
+    }
+
+    private void handleTraced(MessageHandler handler, Message msg) {
+        long sentAt = parseTimestamp(msg.attributes().get(MessageSystemAttributeName.SENT_TIMESTAMP));
+        long dispatchedAt = parseTimestamp(attributeValue(msg, MessageHandler.ATTR_DISPATCH_TIMESTAMP));
+        if (dispatchedAt < 0) {
+            dispatchedAt = sentAt;
+        }
+        if (sentAt >= 0) {
+            recordLatency(handler, "queue-dwell", System.currentTimeMillis() - sentAt);
+        }
+
+        long start = System.nanoTime();
+        try {
             handler.handle(msg);
-            return true;
+            if (dispatchedAt >= 0) {
+                recordLatency(handler, "end-to-end", System.currentTimeMillis() - dispatchedAt);
+            }
+        } finally {
+            metrics.timer(metricName(handler, "handler")).update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
         }
-        LOG.debug("Message refused.");
-        return false;
+    }
+
+    private void recordLatency(MessageHandler handler, String name, long millis) {
+        // Clocks of the dispatching host and this host may differ slightly
+        metrics.timer(metricName(handler, name)).update(Math.max(millis, 0), TimeUnit.MILLISECONDS);
+    }
+
+    private static String attributeValue(Message msg, String name) {
+        MessageAttributeValue value = msg.messageAttributes().get(name);
+        return value != null ? value.stringValue() : null;
+    }
+
+    /**
+     * @return The epoch millis, or -1 when the value is absent or invalid.
+     */
+    private static long parseTimestamp(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void deferMessage(MessageHandler handler, Message msg, int deferSeconds) {
+        metrics.meter(metricName(handler, "throttled")).mark();
+        ChangeMessageVisibilityRequest request = ChangeMessageVisibilityRequest.builder()
+                .queueUrl(sqsListenQueueUrl)
+                .receiptHandle(msg.receiptHandle())
+                .visibilityTimeout(deferSeconds)
+                .build();
+        sqsClient.changeMessageVisibility(request);
+        LOG.debug("Message type '{}' is saturated, message deferred by {} s on queue '{}'",
+                handler.getMessageType(), deferSeconds, sqsListenQueueUrl);
     }
 
     private void handleRecovery() {
@@ -146,39 +411,75 @@ public class SqsListenerImpl implements SqsListener {
     }
 
     private void logProcessingError(Message msg, Exception e) {
-        StringBuilder builder = new StringBuilder()
-                .append("An error occurred while processing the following message:")
-                .append("\n\tMessageId:     ").append(msg.messageId())
-                .append("\n\tReceiptHandle: ").append(msg.receiptHandle())
-                .append("\n\tMD5OfBody:     ").append(msg.md5OfBody())
-                .append("\n\tBody:          ").append(msg.body());
+        long suppressed = errorLogLimiter.tryAcquire(PROCESSING_ERRORS, e.getClass());
+        if (suppressed == ErrorLogLimiter.SUPPRESSED) {
+            metrics.counter(SUPPRESSED_ERRORS_METRIC).inc();
+            return;
+        }
 
-        msg.messageAttributes().forEach((key, value) ->
-                builder.append("\n\tAttribute:")
-                        .append("\n\t\tName:  ").append(key)
-                        .append("\n\t\tValue: ").append(value.toString())
-        );
+        // Key-value arguments are only built when the error level is enabled
+        LOG.atError()
+                .setMessage("An error occurred while processing message {} from queue '{}'")
+                .addArgument(msg::messageId)
+                .addArgument(sqsListenQueueUrl)
+                .addKeyValue("queueUrl", sqsListenQueueUrl)
+                .addKeyValue("messageId", msg::messageId)
+                .addKeyValue("messageType", () -> attributeValue(msg, MessageHandler.ATTR_MESSAGE_TYPE))
+                .addKeyValue("md5OfBody", msg::md5OfBody)
+                .addKeyValue("body", () -> truncate(msg.body()))
+                .addKeyValue("attributes", () -> msg.messageAttributes().keySet())
+                .addKeyValue("suppressed", suppressed)
+                .setCause(e)
+                .log();
+    }
 
-        LOG.error(builder.toString(), e);
+    private static String truncate(String body) {
+        if (body == null || body.length() <= MAX_LOGGED_BODY_LENGTH) {
+            return body;
+        }
+        return body.substring(0, MAX_LOGGED_BODY_LENGTH) + "... (" + body.length() + " chars)";
     }
 
     private void handleQueueError(Exception e) {
         boolean firstAttempt = healthy.compareAndSet(true, false);
-        String errorMsg = "An error occurred while listening to '%s', waiting '%s' ms before retrying...";
-        if (!firstAttempt) {
-            errorMsg = "Retry failed while listening to '%s', waiting '%s' ms before retrying...";
+        if (firstAttempt) {
+            // Only the first failure of an outage carries the full stack trace, and it is never suppressed
+            LOG.atError()
+                    .setMessage("An error occurred while listening to '{}', waiting {} ms before retrying...")
+                    .addArgument(sqsListenQueueUrl)
+                    .addArgument(SLEEP_ON_ERROR)
+                    .addKeyValue("queueUrl", sqsListenQueueUrl)
+                    .setCause(e)
+                    .log();
+        } else {
+            long suppressed = errorLogLimiter.tryAcquire(QUEUE_ERRORS, e.getClass());
+            if (suppressed == ErrorLogLimiter.SUPPRESSED) {
+                metrics.counter(SUPPRESSED_ERRORS_METRIC).inc();
+            } else {
+                LOG.atError()
+                        .setMessage("Retry failed while listening to '{}' ({}), waiting {} ms before retrying...")
+                        .addArgument(sqsListenQueueUrl)
+                        .addArgument(e::toString)
+                        .addArgument(SLEEP_ON_ERROR)
+                        .addKeyValue("queueUrl", sqsListenQueueUrl)
+                        .addKeyValue("error", () -> e.getClass().getName())
+                        .addKeyValue("suppressed", suppressed)
+                        .log();
+            }
         }
-        LOG.error(String.format(errorMsg, sqsListenQueueUrl, SLEEP_ON_ERROR), e);
         try {
             Thread.sleep(SLEEP_ON_ERROR);
         } catch (InterruptedException ie) {
-            LOG.info(interruptedMsg);
+            // Restore the flag, so the polling loop stops
+            Thread.currentThread().interrupt();
         }
     }
 
     @Override
     public void stop() {
         pollingThread.interrupt();
+        // Messages already accepted by a bulkhead are still handled and deleted
+        bulkheads.values().forEach(ExecutorService::shutdown);
     }
 
     @Override
@@ -191,4 +492,17 @@ public class SqsListenerImpl implements SqsListener {
         return sqsListenQueueUrl;
     }
 
+    /**
+     * Messages in flight of one message type, summed over the distinct
+     * throttles of all listeners that report to the same registry.
+     */
+    private static final class InFlightGauge implements Gauge<Integer> {
+
+        private final Set<MessageThrottle> throttles = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public Integer getValue() {
+            return throttles.stream().mapToInt(MessageThrottle::getInFlight).sum();
+        }
+    }
 }
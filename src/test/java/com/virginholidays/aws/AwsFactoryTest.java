@@ -0,0 +1,85 @@
+package com.virginholidays.aws;
+
+import io.dropwizard.core.setup.Environment;
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.lifecycle.setup.LifecycleEnvironment;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.sns.SnsClient;
+import software.amazon.awssdk.services.sqs.SqsClient;
+
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests that {@link AwsFactory} shares its clients.
+ */
+@ExtendWith(MockitoExtension.class)
+public class AwsFactoryTest {
+
+    @Mock
+    private Environment env;
+
+    @Mock
+    private LifecycleEnvironment lifecycle;
+
+    private final AwsFactory fixture = new AwsFactory();
+
+    private final ArgumentCaptor<Managed> managed = ArgumentCaptor.forClass(Managed.class);
+
+    @BeforeEach
+    public void setUp() {
+        when(env.lifecycle()).thenReturn(lifecycle);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        // Closes the clients and the credentials provider with its refresh thread, like Dropwizard would
+        verify(lifecycle, atLeastOnce()).manage(managed.capture());
+        for (Managed object : managed.getAllValues()) {
+            object.stop();
+        }
+    }
+
+    @Test
+    public void testSharesSqsClient() {
+        SqsClient sqs = fixture.buildSQSClient(env);
+
+        assertSame(sqs, fixture.buildSQSClient(env));
+        // The shared credentials provider and the client
+        verify(lifecycle, times(2)).manage(any(Managed.class));
+    }
+
+    @Test
+    public void testSharesCredentialsProviderBetweenClients() {
+        fixture.buildSQSClient(env);
+        SnsClient sns = fixture.buildSNSClient(env);
+
+        assertSame(sns, fixture.buildSNSClient(env));
+        verify(lifecycle, times(3)).manage(any(Managed.class));
+    }
+
+    @Test
+    public void testDoesNotShareClientsBetweenEnvironments() throws Exception {
+        Environment otherEnv = mock(Environment.class);
+        LifecycleEnvironment otherLifecycle = mock(LifecycleEnvironment.class);
+        when(otherEnv.lifecycle()).thenReturn(otherLifecycle);
+
+        SqsClient sqs = fixture.buildSQSClient(env);
+        SqsClient otherSqs = fixture.buildSQSClient(otherEnv);
+
+        assertNotSame(sqs, otherSqs);
+        // Each environment manages its own credentials provider and client
+        ArgumentCaptor<Managed> otherManaged = ArgumentCaptor.forClass(Managed.class);
+        verify(otherLifecycle, times(2)).manage(otherManaged.capture());
+        for (Managed object : otherManaged.getAllValues()) {
+            object.stop();
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.virginholidays.aws;
 import com.virginholidays.aws.dw.core.ManagedAwsClient;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
 import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.sns.SnsClient;
@@ -47,4 +48,15 @@ public class ManagedAwsClientTest {
         }
     }
 
+    @Test
+    public void testClosesClientOnce() {
+        SqsClient sqs = Mockito.mock(SqsClient.class);
+        ManagedAwsClient fixture = new ManagedAwsClient(sqs);
+
+        fixture.stop();
+        fixture.stop();
+
+        Mockito.verify(sqs, Mockito.times(1)).close();
+    }
+
 }
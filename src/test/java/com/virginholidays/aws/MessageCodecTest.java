@@ -0,0 +1,185 @@
+package com.virginholidays.aws;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.virginholidays.aws.dw.sqs.GzipMessageCodec;
+import com.virginholidays.aws.dw.sqs.MessageCodec;
+import com.virginholidays.aws.dw.sqs.MessageCodecs;
+import com.virginholidays.aws.dw.sqs.MessageDispatcher;
+import com.virginholidays.aws.dw.sqs.MessageHandler;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.Message;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+public class MessageCodecTest {
+
+    private static final String TEST_QUEUE_URL = "test-queue-url";
+
+    private static final String TEST_TYPE = "TestType";
+
+    private static final String BODY = "{\"id\":\"éè\",\"items\":[" + "\"item\",".repeat(1000) + "\"last\"]}";
+
+    @Mock
+    private SqsClient sqsClient;
+
+    @Test
+    public void testGzipRoundTrip() {
+        MessageCodec fixture = MessageCodecs.GZIP;
+
+        String encoded = fixture.encode(BODY);
+
+        assertTrue(encoded.length() < BODY.length());
+        assertEquals(BODY, fixture.decode(encoded));
+        // Pooled buffers must not leak state into the next call
+        assertEquals("small", fixture.decode(fixture.encode("small")));
+    }
+
+    @Test
+    public void testGzipConcurrentUse() throws Exception {
+        // More callers than pooled buffers, so buffers are shared, created and released
+        ExecutorService executor = Executors.newFixedThreadPool(4 * Runtime.getRuntime().availableProcessors());
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                String body = BODY + i;
+                results.add(executor.submit(
+                        () -> assertEquals(body, MessageCodecs.GZIP.decode(MessageCodecs.GZIP.encode(body)))));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testDecodeMessage() {
+        Map<String, MessageAttributeValue> messageAttributes = Map.of(MessageHandler.ATTR_CONTENT_ENCODING,
+                MessageAttributeValue.builder().dataType("String").stringValue("GZIP").build());
+
+        Message message = Message.builder()
+                .body(MessageCodecs.GZIP.encode(BODY))
+                .messageAttributes(messageAttributes)
+                .build();
+
+        assertEquals(BODY, MessageCodecs.decode(message).body());
+    }
+
+    @Test
+    public void testDecodePlainMessage() {
+        Message message = Message.builder().body(BODY).build();
+
+        assertSame(message, MessageCodecs.decode(message));
+    }
+
+    @Test
+    public void testUnknownCodec() {
+        assertThrows(IllegalArgumentException.class, () -> MessageCodecs.forName("unknown"));
+    }
+
+    @Test
+    public void testGzipInteroperability() throws IOException {
+        // Bodies encoded by this codec are plain gzip streams, and vice versa
+        byte[] compressed = Base64.getDecoder().decode(MessageCodecs.GZIP.encode(BODY));
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            assertEquals(BODY, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(BODY.getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals(BODY, MessageCodecs.GZIP.decode(Base64.getEncoder().encodeToString(out.toByteArray())));
+    }
+
+    @Test
+    public void testRefusesOversizedDecodedBody() {
+        MessageCodec fixture = new GzipMessageCodec(1024);
+
+        String bomb = fixture.encode("x".repeat(1024 * 1024));
+
+        assertThrows(IllegalArgumentException.class, () -> fixture.decode(bomb));
+        // The pooled buffers are still usable afterwards
+        assertEquals("small", fixture.decode(fixture.encode("small")));
+    }
+
+    @Test
+    public void testDecodedSizeLimitBelowBufferSize() {
+        MessageCodec fixture = new GzipMessageCodec(1024);
+
+        // The limit must not depend on the size of the pooled buffers
+        assertThrows(IllegalArgumentException.class, () -> fixture.decode(fixture.encode("x".repeat(5 * 1024))));
+        assertThrows(IllegalArgumentException.class, () -> fixture.decode(fixture.encode("x".repeat(1025))));
+        String maximum = "x".repeat(1024);
+        assertEquals(maximum, fixture.decode(fixture.encode(maximum)));
+    }
+
+    @Test
+    public void testRefusesCorruptBody() {
+        assertThrows(IllegalArgumentException.class, () -> MessageCodecs.GZIP.decode("not gzip"));
+        assertThrows(IllegalArgumentException.class,
+                () -> MessageCodecs.GZIP.decode(Base64.getEncoder().encodeToString(new byte[32])));
+    }
+
+    @Test
+    public void testDispatcherEncodesAboveThreshold() {
+        String body = "x".repeat(1000);
+
+        MessageDispatcher.dispatch(body, TEST_QUEUE_URL, TEST_TYPE, sqsClient, MessageCodecs.GZIP, 100);
+
+        SendMessageRequest request = sentRequest();
+        assertEquals(MessageCodecs.GZIP.getName(),
+                request.messageAttributes().get(MessageHandler.ATTR_CONTENT_ENCODING).stringValue());
+        assertEquals(body, MessageCodecs.GZIP.decode(request.messageBody()));
+    }
+
+    @Test
+    public void testDispatcherDoesNotEncodeBelowThreshold() {
+        MessageDispatcher.dispatch("body", TEST_QUEUE_URL, TEST_TYPE, sqsClient, MessageCodecs.GZIP, 100);
+
+        SendMessageRequest request = sentRequest();
+        assertEquals("body", request.messageBody());
+        assertNull(request.messageAttributes().get(MessageHandler.ATTR_CONTENT_ENCODING));
+    }
+
+    @Test
+    public void testDispatcherThresholdCountsUtf8Bytes() {
+        // 60 characters, but 120 bytes in UTF-8
+        String body = "\u00e9".repeat(60);
+
+        MessageDispatcher.dispatch(body, TEST_QUEUE_URL, TEST_TYPE, sqsClient, MessageCodecs.GZIP, 100);
+
+        SendMessageRequest request = sentRequest();
+        assertNotNull(request.messageAttributes().get(MessageHandler.ATTR_CONTENT_ENCODING));
+        assertEquals(body, MessageCodecs.GZIP.decode(request.messageBody()));
+    }
+
+    private SendMessageRequest sentRequest() {
+        ArgumentCaptor<SendMessageRequest> captor = ArgumentCaptor.forClass(SendMessageRequest.class);
+        verify(sqsClient).sendMessage(captor.capture());
+        return captor.getValue();
+    }
+}
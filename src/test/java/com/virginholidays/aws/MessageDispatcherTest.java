@@ -0,0 +1,60 @@
+package com.virginholidays.aws;
+
+import java.util.Map;
+
+import com.virginholidays.aws.dw.sqs.MessageDispatcher;
+import com.virginholidays.aws.dw.sqs.MessageHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.slf4j.MDC;
+import software.amazon.awssdk.services.sqs.SqsClient;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+public class MessageDispatcherTest {
+
+    private static final String TEST_QUEUE_URL = "test-queue-url";
+
+    private static final String TEST_TYPE = "TestType";
+
+    @Mock
+    private SqsClient sqsClient;
+
+    @AfterEach
+    public void tearDown() {
+        MDC.clear();
+    }
+
+    @Test
+    public void testPropagatesTraceId() {
+        MDC.put(MessageHandler.MDC_TRACE_ID, "trace-1");
+
+        MessageDispatcher.dispatch("body", TEST_QUEUE_URL, TEST_TYPE, sqsClient);
+
+        Map<String, MessageAttributeValue> attributes = sentRequest().messageAttributes();
+        assertEquals(TEST_TYPE, attributes.get(MessageHandler.ATTR_MESSAGE_TYPE).stringValue());
+        assertEquals("trace-1", attributes.get(MessageHandler.ATTR_TRACE_ID).stringValue());
+        assertNotNull(attributes.get(MessageHandler.ATTR_DISPATCH_TIMESTAMP));
+    }
+
+    @Test
+    public void testCreatesTraceId() {
+        MessageDispatcher.dispatch("body", TEST_QUEUE_URL, TEST_TYPE, sqsClient);
+
+        assertNotNull(sentRequest().messageAttributes().get(MessageHandler.ATTR_TRACE_ID));
+    }
+
+    private SendMessageRequest sentRequest() {
+        ArgumentCaptor<SendMessageRequest> captor = ArgumentCaptor.forClass(SendMessageRequest.class);
+        verify(sqsClient).sendMessage(captor.capture());
+        return captor.getValue();
+    }
+}
@@ -0,0 +1,67 @@
+package com.virginholidays.aws;
+
+import com.virginholidays.aws.dw.sqs.MessageThrottle;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageThrottleTest {
+
+    @Test
+    public void testRefuseNegativeParameters() {
+        assertThrows(IllegalArgumentException.class, () -> new MessageThrottle(-1, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new MessageThrottle(0, -1, 1));
+        assertThrows(IllegalArgumentException.class, () -> new MessageThrottle(0, 0, -1));
+    }
+
+    @Test
+    public void testRefuseImmediateRedelivery() {
+        // Deferring by zero seconds would receive the saturated type's messages again right away
+        assertThrows(IllegalArgumentException.class, () -> new MessageThrottle(1, 0, 0));
+    }
+
+    @Test
+    public void testUnlimited() {
+        MessageThrottle fixture = new MessageThrottle(0, 0, 1);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(fixture.tryAcquire());
+        }
+        assertEquals(0, fixture.getThrottledCount());
+    }
+
+    @Test
+    public void testBulkhead() {
+        MessageThrottle fixture = new MessageThrottle(2, 0, 1);
+
+        assertTrue(fixture.tryAcquire());
+        assertTrue(fixture.tryAcquire());
+        assertFalse(fixture.tryAcquire());
+        assertEquals(2, fixture.getInFlight());
+
+        fixture.release();
+        assertTrue(fixture.tryAcquire());
+        assertEquals(1, fixture.getThrottledCount());
+    }
+
+    @Test
+    public void testRateLimit() throws Exception {
+        MessageThrottle fixture = new MessageThrottle(0, 2, 5);
+
+        assertTrue(fixture.tryAcquire());
+        assertTrue(fixture.tryAcquire());
+        assertFalse(fixture.tryAcquire());
+        assertEquals(1, fixture.getThrottledCount());
+
+        Thread.sleep(600);
+        assertTrue(fixture.tryAcquire());
+    }
+
+    @Test
+    public void testRateLimitReleasesBulkheadPermit() {
+        MessageThrottle fixture = new MessageThrottle(5, 1, 1);
+
+        assertTrue(fixture.tryAcquire());
+        assertFalse(fixture.tryAcquire());
+        assertEquals(1, fixture.getInFlight());
+    }
+}
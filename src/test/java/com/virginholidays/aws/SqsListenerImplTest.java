@@ -1,13 +1,26 @@
 package com.virginholidays.aws;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.*;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.virginholidays.aws.dw.sqs.MessageCodecs;
 import com.virginholidays.aws.dw.sqs.MessageHandler;
+import com.virginholidays.aws.dw.sqs.MessageThrottle;
 import com.virginholidays.aws.dw.sqs.SqsListenerImpl;
 import org.glassfish.jersey.internal.guava.Sets;
 import org.junit.jupiter.api.BeforeEach;
@@ -17,6 +30,7 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
 import software.amazon.awssdk.services.sqs.SqsClient;
 import software.amazon.awssdk.services.sqs.model.*;
@@ -144,4 +158,290 @@ public class SqsListenerImplTest {
 
         verify(sqsClient, atLeastOnce()).deleteMessage(any(DeleteMessageRequest.class));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testDefersMessagesIfHandlerIsThrottled() throws Exception {
+        LOG.debug("testDefersMessagesIfHandlerIsThrottled()...");
+
+        ReceiveMessageResponse result = ReceiveMessageResponse.builder().messages(messageList).build();
+
+        when(sqsClient.receiveMessage(any(ReceiveMessageRequest.class))).thenReturn(result);
+
+        when(handler.canHandle(any(Message.class))).thenReturn(true);
+        when(handler.getThrottle()).thenReturn(new MessageThrottle(0, 1, 10));
+
+        fixture.start();
+        Thread.sleep(WAIT);
+        fixture.stop();
+
+        verify(handler, atMost(2)).handle(any(Message.class));
+        verify(sqsClient, atMost(2)).deleteMessage(any(DeleteMessageRequest.class));
+        verify(sqsClient, atLeastOnce()).changeMessageVisibility(any(ChangeMessageVisibilityRequest.class));
+    }
+
+    @Test
+    public void testRestoresTraceAndRecordsLatency() throws Exception {
+        LOG.debug("testRestoresTraceAndRecordsLatency()...");
+
+        Message message = Message.builder()
+                .messageId("message-1")
+                .messageAttributes(Map.of(
+                        MessageHandler.ATTR_TRACE_ID, stringAttribute("trace-1"),
+                        MessageHandler.ATTR_DISPATCH_TIMESTAMP, stringAttribute(Long.toString(System.currentTimeMillis()))))
+                .attributes(Map.of(MessageSystemAttributeName.SENT_TIMESTAMP, Long.toString(System.currentTimeMillis())))
+                .build();
+        ReceiveMessageResponse result = ReceiveMessageResponse.builder().messages(message).build();
+
+        when(sqsClient.receiveMessage(any(ReceiveMessageRequest.class))).thenReturn(result);
+
+        List<String> traceIds = new CopyOnWriteArrayList<>();
+        MessageHandler tracingHandler = new MessageHandler("TestType") {
+            @Override
+            public boolean canHandle(Message message) {
+                return true;
+            }
+
+            @Override
+            public void handle(Message message) {
+                traceIds.add(MDC.get(MessageHandler.MDC_TRACE_ID));
+            }
+        };
+
+        MetricRegistry metrics = new MetricRegistry();
+        fixture = new SqsListenerImpl(sqsClient, TEST_QUEUE_URL, Set.of(tracingHandler), metrics);
+        fixture.start();
+        Thread.sleep(WAIT);
+        fixture.stop();
+
+        assertFalse(traceIds.isEmpty());
+        assertEquals("trace-1", traceIds.get(0));
+        for (String name : List.of("queue-dwell", "handler", "end-to-end")) {
+            assertTrue(metrics.timer(MetricRegistry.name(SqsListenerImpl.class, "TestType", name)).getCount() > 0);
+        }
+    }
+
+    @Test
+    public void testBlockedTypeDoesNotDelayOtherTypes() throws Exception {
+        LOG.debug("testBlockedTypeDoesNotDelayOtherTypes()...");
+
+        Message slowMessage = Message.builder().messageId("slow")
+                .messageAttributes(Map.of(MessageHandler.ATTR_MESSAGE_TYPE, stringAttribute("Slow"))).build();
+        Message fastMessage = Message.builder().messageId("fast")
+                .messageAttributes(Map.of(MessageHandler.ATTR_MESSAGE_TYPE, stringAttribute("Fast"))).build();
+        ReceiveMessageResponse result = ReceiveMessageResponse.builder().messages(slowMessage, fastMessage).build();
+
+        when(sqsClient.receiveMessage(any(ReceiveMessageRequest.class))).thenReturn(result);
+
+        CountDownLatch unblock = new CountDownLatch(1);
+        MessageHandler slowHandler = new MessageHandler("Slow", new MessageThrottle(1, 0, 1)) {
+            @Override
+            public void handle(Message message) {
+                try {
+                    unblock.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        CountDownLatch fastHandled = new CountDownLatch(3);
+        MessageHandler fastHandler = new MessageHandler("Fast") {
+            @Override
+            public void handle(Message message) {
+                fastHandled.countDown();
+            }
+        };
+
+        fixture = new SqsListenerImpl(sqsClient, TEST_QUEUE_URL, Set.of(slowHandler, fastHandler));
+        fixture.start();
+        try {
+            assertTrue(fastHandled.await(WAIT, TimeUnit.MILLISECONDS));
+            // The slow type's only slot stays taken, so its further messages are handed back
+            verify(sqsClient, atLeastOnce()).changeMessageVisibility(any(ChangeMessageVisibilityRequest.class));
+        } finally {
+            unblock.countDown();
+            fixture.stop();
+        }
+    }
+
+    @Test
+    public void testDecodesBodyBeforeHandling() throws Exception {
+        LOG.debug("testDecodesBodyBeforeHandling()...");
+
+        String body = "{\"payload\":\"" + "x".repeat(1000) + "\"}";
+        Message message = Message.builder()
+                .body(MessageCodecs.GZIP.encode(body))
+                .messageAttributes(Map.of(
+                        MessageHandler.ATTR_MESSAGE_TYPE, stringAttribute("TestType"),
+                        MessageHandler.ATTR_CONTENT_ENCODING, stringAttribute(MessageCodecs.GZIP.getName())))
+                .build();
+        ReceiveMessageResponse result = ReceiveMessageResponse.builder().messages(message).build();
+
+        when(sqsClient.receiveMessage(any(ReceiveMessageRequest.class))).thenReturn(result);
+
+        List<String> checkedBodies = new CopyOnWriteArrayList<>();
+        List<String> handledBodies = new CopyOnWriteArrayList<>();
+        MessageHandler decodingHandler = new MessageHandler("TestType") {
+            @Override
+            public boolean canHandle(Message message) {
+                checkedBodies.add(message.body());
+                return super.canHandle(message);
+            }
+
+            @Override
+            public void handle(Message message) {
+                handledBodies.add(message.body());
+            }
+        };
+
+        fixture = new SqsListenerImpl(sqsClient, TEST_QUEUE_URL, Set.of(decodingHandler));
+        fixture.start();
+        Thread.sleep(WAIT);
+        fixture.stop();
+
+        assertFalse(handledBodies.isEmpty());
+        assertTrue(checkedBodies.stream().allMatch(body::equals));
+        assertTrue(handledBodies.stream().allMatch(body::equals));
+        verify(sqsClient, atLeastOnce()).deleteMessage(any(DeleteMessageRequest.class));
+    }
+
+    @Test
+    public void testRateLimitsRepeatedProcessingErrors() throws Exception {
+        LOG.debug("testRateLimitsRepeatedProcessingErrors()...");
+
+        String queueUrl = "error-queue-url";
+        ReceiveMessageResponse result = ReceiveMessageResponse.builder().messages(messageList).build();
+
+        when(sqsClient.receiveMessage(any(ReceiveMessageRequest.class))).thenReturn(result);
+
+        MessageHandler failingHandler = new MessageHandler("TestType") {
+            @Override
+            public boolean canHandle(Message message) {
+                return true;
+            }
+
+            @Override
+            public void handle(Message message) {
+                throw new IllegalStateException("should be rate limited");
+            }
+        };
+
+        ch.qos.logback.classic.Logger listenerLogger =
+                (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(SqsListenerImpl.class);
+        ListAppender<ILoggingEvent> appender = new ListAppender<>();
+        appender.start();
+        listenerLogger.addAppender(appender);
+
+        MetricRegistry metrics = new MetricRegistry();
+        fixture = new SqsListenerImpl(sqsClient, queueUrl, Set.of(failingHandler), metrics);
+        try {
+            fixture.start();
+            Thread.sleep(WAIT);
+            fixture.stop();
+        } finally {
+            listenerLogger.detachAppender(appender);
+        }
+
+        long errorEvents = appender.list.stream()
+                .filter(event -> event.getLevel() == Level.ERROR)
+                .filter(event -> event.getFormattedMessage().contains(queueUrl))
+                .count();
+        assertEquals(10, errorEvents);
+        assertTrue(metrics.counter(MetricRegistry.name(SqsListenerImpl.class, "errors", "suppressed")).getCount() > 0);
+    }
+
+    @Test
+    public void testReportsInFlightOfAllThrottlesOfAType() {
+        LOG.debug("testReportsInFlightOfAllThrottlesOfAType()...");
+
+        when(sqsClient.receiveMessage(any(ReceiveMessageRequest.class)))
+                .thenReturn(ReceiveMessageResponse.builder().build());
+
+        MessageThrottle firstThrottle = new MessageThrottle(2, 0, 1);
+        MessageThrottle secondThrottle = new MessageThrottle(2, 0, 1);
+        assertTrue(firstThrottle.tryAcquire());
+        assertTrue(secondThrottle.tryAcquire());
+        assertTrue(secondThrottle.tryAcquire());
+
+        MetricRegistry metrics = new MetricRegistry();
+        SqsListenerImpl first = new SqsListenerImpl(sqsClient, TEST_QUEUE_URL,
+                Set.of(failingHandler("TestType", firstThrottle)), metrics);
+        SqsListenerImpl second = new SqsListenerImpl(sqsClient, TEST_QUEUE_URL,
+                Set.of(failingHandler("TestType", secondThrottle)), metrics);
+        first.start();
+        second.start();
+        try {
+            Gauge<?> inFlight =
+                    metrics.getGauges().get(MetricRegistry.name(SqsListenerImpl.class, "TestType", "in-flight"));
+            assertEquals(3, inFlight.getValue());
+        } finally {
+            first.stop();
+            second.stop();
+        }
+    }
+
+    @Test
+    public void testLogsProcessingErrorsWithTrace() throws Exception {
+        LOG.debug("testLogsProcessingErrorsWithTrace()...");
+
+        Message inlineMessage = Message.builder().messageId("inline")
+                .messageAttributes(Map.of(MessageHandler.ATTR_MESSAGE_TYPE, stringAttribute("Inline"),
+                        MessageHandler.ATTR_TRACE_ID, stringAttribute("trace-inline")))
+                .build();
+        Message bulkheadMessage = Message.builder().messageId("bulkhead")
+                .messageAttributes(Map.of(MessageHandler.ATTR_MESSAGE_TYPE, stringAttribute("Bulkhead"),
+                        MessageHandler.ATTR_TRACE_ID, stringAttribute("trace-bulkhead")))
+                .build();
+        ReceiveMessageResponse result = ReceiveMessageResponse.builder()
+                .messages(inlineMessage, bulkheadMessage).build();
+
+        when(sqsClient.receiveMessage(any(ReceiveMessageRequest.class))).thenReturn(result);
+
+        // Handled on the polling thread, and on the type's own executor
+        MessageHandler inlineHandler = failingHandler("Inline", null);
+        MessageHandler bulkheadHandler = failingHandler("Bulkhead", new MessageThrottle(1, 0, 1));
+
+        ch.qos.logback.classic.Logger listenerLogger =
+                (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(SqsListenerImpl.class);
+        ListAppender<ILoggingEvent> appender = new ListAppender<>();
+        appender.start();
+        listenerLogger.addAppender(appender);
+
+        fixture = new SqsListenerImpl(sqsClient, TEST_QUEUE_URL, Set.of(inlineHandler, bulkheadHandler),
+                new MetricRegistry());
+        try {
+            fixture.start();
+            Thread.sleep(WAIT);
+            fixture.stop();
+        } finally {
+            listenerLogger.detachAppender(appender);
+        }
+
+        Map<String, String> traceIds = new HashMap<>();
+        for (ILoggingEvent event : List.copyOf(appender.list)) {
+            if (event.getLevel() == Level.ERROR) {
+                Map<String, String> mdc = event.getMDCPropertyMap();
+                traceIds.put(mdc.get(MessageHandler.MDC_MESSAGE_TYPE), mdc.get(MessageHandler.MDC_TRACE_ID));
+            }
+        }
+        assertEquals(Map.of("Inline", "trace-inline", "Bulkhead", "trace-bulkhead"), traceIds);
+    }
+
+    private static MessageHandler failingHandler(String messageType, MessageThrottle throttle) {
+        return new MessageHandler(messageType, throttle) {
+            @Override
+            public boolean canHandle(Message message) {
+                MessageAttributeValue type = message.messageAttributes().get(ATTR_MESSAGE_TYPE);
+                return type != null && messageType.equals(type.stringValue());
+            }
+
+            @Override
+            public void handle(Message message) {
+                throw new IllegalStateException("failed " + messageType);
+            }
+        };
+    }
+
+    private static MessageAttributeValue stringAttribute(String value) {
+        return MessageAttributeValue.builder().dataType("String").stringValue(value).build();
+    }
+}
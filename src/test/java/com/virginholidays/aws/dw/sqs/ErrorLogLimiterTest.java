@@ -0,0 +1,59 @@
+package com.virginholidays.aws.dw.sqs;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests {@link ErrorLogLimiter}, which is package-private.
+ */
+public class ErrorLogLimiterTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private final ErrorLogLimiter fixture = new ErrorLogLimiter(2, 1, TimeUnit.SECONDS, clock::get);
+
+    @Test
+    public void testRefuseInvalidLimit() {
+        assertThrows(IllegalArgumentException.class, () -> new ErrorLogLimiter(0, 1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testSuppressesBeyondLimit() {
+        assertEquals(0, fixture.tryAcquire("path", RuntimeException.class));
+        assertEquals(0, fixture.tryAcquire("path", RuntimeException.class));
+        assertEquals(ErrorLogLimiter.SUPPRESSED, fixture.tryAcquire("path", RuntimeException.class));
+        assertEquals(ErrorLogLimiter.SUPPRESSED, fixture.tryAcquire("path", RuntimeException.class));
+    }
+
+    @Test
+    public void testResetsWindowAndCarriesSuppressedCount() {
+        fixture.tryAcquire("path", RuntimeException.class);
+        fixture.tryAcquire("path", RuntimeException.class);
+        fixture.tryAcquire("path", RuntimeException.class);
+        fixture.tryAcquire("path", RuntimeException.class);
+        fixture.tryAcquire("path", RuntimeException.class);
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(999));
+        assertEquals(ErrorLogLimiter.SUPPRESSED, fixture.tryAcquire("path", RuntimeException.class));
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        // The next logged event reports the 4 suppressed ones, after which the count starts over
+        assertEquals(4, fixture.tryAcquire("path", RuntimeException.class));
+        assertEquals(0, fixture.tryAcquire("path", RuntimeException.class));
+        assertEquals(ErrorLogLimiter.SUPPRESSED, fixture.tryAcquire("path", RuntimeException.class));
+    }
+
+    @Test
+    public void testLimitsPerPathAndClass() {
+        fixture.tryAcquire("path", RuntimeException.class);
+        fixture.tryAcquire("path", RuntimeException.class);
+
+        assertEquals(ErrorLogLimiter.SUPPRESSED, fixture.tryAcquire("path", RuntimeException.class));
+        assertEquals(0, fixture.tryAcquire("path", IllegalStateException.class));
+        assertEquals(0, fixture.tryAcquire("other", RuntimeException.class));
+    }
+}